@@ -0,0 +1,65 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ConfigHandle#get()} alone, and with readers contending with a thread publishing new configs
+ * as fast as it can.  Reads should take a few nanoseconds and allocate nothing either way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ConfigHandleBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ConfigHandle<Limits> handle;
+
+    private JsonNode[] trees;
+
+    private int published;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        handle = new ConfigHandle<>("/server/limits", Limits.class);
+        trees = new JsonNode[]{
+                objectMapper.readTree("{\"server\": {\"limits\": {\"rate\": 10, \"burst\": 100}}}"),
+                objectMapper.readTree("{\"server\": {\"limits\": {\"rate\": 20, \"burst\": 200}}}")
+        };
+        handle.bind(trees[0], objectMapper);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public int read() {
+        return handle.get().rate;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public int contendedRead() {
+        return handle.get().rate;
+    }
+
+    @Benchmark
+    @Group("contended")
+    public boolean contendedPublish() {
+        return handle.bind(trees[++published & 1], objectMapper);
+    }
+
+    public static final class Limits {
+
+        public int rate;
+
+        public int burst;
+    }
+}
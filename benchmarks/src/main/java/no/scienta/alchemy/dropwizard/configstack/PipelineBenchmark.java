@@ -0,0 +1,175 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures each stage of the config pipeline separately, and the whole of it through
+ * {@link StackingConfigurationSourceProvider#open(String)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Pipeline {
+
+        ConfigurationStacker stacker;
+
+        ConfigurationLoader loader;
+
+        ConfigurationAssembler assembler;
+
+        ConfigurationAssembler cachingAssembler;
+
+        ConfigurationAssembler incrementalAssembler;
+
+        boolean changed;
+
+        JsonDiff diff;
+
+        Path layerCache;
+
+        ConfigurationSubstitutor substitutor;
+
+        StackingConfigurationSourceProvider provider;
+
+        @Setup(Level.Trial)
+        public void setup(SyntheticStack stack) throws IOException {
+            stacker = new DefaultConfigurationStacker();
+            loader = new DefaultConfigurationLoader(
+                    stack.sourceProvider(),
+                    stack.resolver,
+                    Collections.emptyList(),
+                    stack.quiet);
+            assembler = new DefaultConfigurationAssembler(stack.objectMapper, ArrayStrategy.OVERLAY);
+            layerCache = Files.createTempDirectory("configstack-layers");
+            cachingAssembler = new DefaultConfigurationAssembler(
+                    stack.objectMapper,
+                    ArrayStrategy.OVERLAY,
+                    new LayerCache(layerCache, stack.layers, stack.quiet));
+            incrementalAssembler = new DefaultConfigurationAssembler(
+                    stack.objectMapper, ArrayStrategy.OVERLAY, null, true);
+            incrementalAssembler.assemble(stack.loadedData);
+            diff = new JsonDiff();
+            diff.next(stack.assembled);
+            substitutor = new DefaultConfigurationSubstitutor(null);
+            provider = new StackingConfigurationSourceProvider(
+                    stacker,
+                    stack.resolver,
+                    loader,
+                    assembler,
+                    substitutor,
+                    stack.objectMapper,
+                    stack.quiet);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try (Stream<Path> files = Files.list(layerCache)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(layerCache);
+        }
+    }
+
+    @Benchmark
+    public Collection<String> stack(SyntheticStack stack, Pipeline pipeline) {
+        return pipeline.stacker.parse(stack.serverCommand);
+    }
+
+    @Benchmark
+    public Collection<LoadedData> load(SyntheticStack stack, Pipeline pipeline) {
+        return pipeline.loader.load(stack.stack);
+    }
+
+    @Benchmark
+    public JsonNode assemble(SyntheticStack stack, Pipeline pipeline) {
+        return pipeline.assembler.assemble(stack.loadedData);
+    }
+
+    /**
+     * Assembles with a warm {@link LayerCache}, so YAML layers are decoded from Smile instead of parsed.
+     */
+    @Benchmark
+    public JsonNode assembleCached(SyntheticStack stack, Pipeline pipeline) {
+        return pipeline.cachingAssembler.assemble(stack.loadedData);
+    }
+
+    /**
+     * Re-assembles after the top layer changed, alternating between two versions of it.
+     */
+    @Benchmark
+    public JsonNode reassemble(SyntheticStack stack, Pipeline pipeline) {
+        pipeline.changed = !pipeline.changed;
+        return pipeline.incrementalAssembler.assemble(pipeline.changed ? stack.changedData : stack.loadedData);
+    }
+
+    /**
+     * Merges with the copying {@link JsonCombiner#combine}.  Works on fresh copies of the layers, like
+     * {@link #fold(SyntheticStack)}, so the two differ only in the merge kernel.
+     */
+    @Benchmark
+    public JsonNode combine(SyntheticStack stack) {
+        JsonNode combined = JsonUtils.objectNode();
+        for (JsonNode layer : stack.layerCopies()) {
+            combined = JsonCombiner.combine(combined, layer, ArrayStrategy.OVERLAY);
+        }
+        return combined;
+    }
+
+    /**
+     * Merges in place with {@link JsonCombiner#fold}, as the assembler does with its freshly parsed layers.
+     */
+    @Benchmark
+    public JsonNode fold(SyntheticStack stack) {
+        JsonNode folded = JsonUtils.objectNode();
+        for (JsonNode layer : stack.layerCopies()) {
+            folded = JsonCombiner.fold(folded, layer, ArrayStrategy.OVERLAY);
+        }
+        return folded;
+    }
+
+    /**
+     * Diffs two trees sharing no nodes, with one leaf changed, hashing both in full.
+     */
+    @Benchmark
+    public List<String> diff(SyntheticStack stack) {
+        JsonDiff diff = new JsonDiff();
+        diff.next(stack.assembled);
+        return diff.next(stack.assembledChangedCopy);
+    }
+
+    /**
+     * Diffs trees sharing all subtrees but the path to a changed leaf, alternating between the two.
+     */
+    @Benchmark
+    public List<String> diffShared(SyntheticStack stack, Pipeline pipeline) {
+        pipeline.changed = !pipeline.changed;
+        return pipeline.diff.next(pipeline.changed ? stack.assembledChanged : stack.assembled);
+    }
+
+    @Benchmark
+    public JsonNode substitute(SyntheticStack stack, Pipeline pipeline) {
+        return pipeline.substitutor.substitute(stack.assembled);
+    }
+
+    @Benchmark
+    public long open(SyntheticStack stack, Pipeline pipeline) throws Exception {
+        return SyntheticStack.drain(pipeline.provider.open(stack.serverCommand));
+    }
+}
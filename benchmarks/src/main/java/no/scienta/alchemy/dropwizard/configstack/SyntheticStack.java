@@ -0,0 +1,229 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A synthetic config stack, scaling in layer count, tree depth and width, array length and
+ * {@code ${...}} density.  Every layer after the first overrides roughly half of the keys at each level.
+ * Generation is deterministic, so runs with the same parameters see the same data.
+ */
+@State(Scope.Benchmark)
+public class SyntheticStack {
+
+    static final String BASE = "Bench";
+
+    @Param({"2", "8"})
+    public int layers;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"6"})
+    public int width;
+
+    @Param({"8"})
+    public int arrayLength;
+
+    @Param({"0.0", "0.1"})
+    public double placeholderDensity;
+
+    @Param({"json", "yaml", "smile", "cbor"})
+    public String format;
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    final ConfigurationResourceResolver resolver = new ConfigurationResourceResolver() {
+
+        @Override
+        public Stream<String> baseResource() {
+            return Stream.of(BASE);
+        }
+
+        @Override
+        public Stream<String> stackedResource(String stackedElement) {
+            return Stream.of(BASE + "-" + stackedElement);
+        }
+    };
+
+    final ProgressLogger quiet = info -> {
+    };
+
+    String serverCommand;
+
+    Collection<String> stack;
+
+    Map<String, byte[]> resources;
+
+    Collection<LoadedData> loadedData;
+
+    Collection<LoadedData> changedData;
+
+    List<JsonNode> parsedLayers;
+
+    JsonNode assembled;
+
+    JsonNode assembledChanged;
+
+    JsonNode assembledChangedCopy;
+
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        random = new Random(42L);
+        stack = IntStream.range(1, layers).mapToObj(i -> "layer" + i).collect(Collectors.toList());
+        serverCommand = stack.isEmpty() ? "base" : String.join(",", stack);
+
+        ObjectMapper writer = writer();
+        String suffix = "." + format;
+
+        resources = new LinkedHashMap<>();
+        parsedLayers = new ArrayList<>();
+        for (int layer = 0; layer < layers; layer++) {
+            ObjectNode tree = tree(layer, depth, "");
+            String path = layer == 0 ? BASE + suffix : BASE + "-layer" + layer + suffix;
+            resources.put(path, writer.writeValueAsBytes(tree));
+            parsedLayers.add(tree);
+        }
+        loadedData = resources.entrySet().stream()
+                .map(e -> LoadedData.create(e.getKey(), new ByteArrayInputStream(e.getValue())))
+                .collect(Collectors.toList());
+        List<LoadedData> changed = new ArrayList<>(loadedData);
+        changed.set(layers - 1, LoadedData.create(changed.get(layers - 1).getPath(),
+                new ByteArrayInputStream(writer.writeValueAsBytes(tree(layers - 1, depth, "")))));
+        changedData = changed;
+        assembled = new DefaultConfigurationAssembler(objectMapper, ArrayStrategy.OVERLAY).assemble(loadedData);
+        assembledChanged = withChangedLeaf(assembled);
+        assembledChangedCopy = assembledChanged.deepCopy();
+    }
+
+    /**
+     * @return A copy of the tree with its first leaf changed, sharing all subtrees off the path to it
+     */
+    private static JsonNode withChangedLeaf(JsonNode node) {
+        if (!node.isObject()) {
+            return JsonUtils.textNode("changed");
+        }
+        ObjectNode copy = JsonUtils.objectNode();
+        copy.setAll((ObjectNode) node);
+        copy.set("k0", withChangedLeaf(node.get("k0")));
+        return copy;
+    }
+
+    private ObjectMapper writer() {
+        switch (format) {
+            case "yaml":
+                return new ObjectMapper(new YAMLFactory());
+            case "smile":
+                return new ObjectMapper(new SmileFactory());
+            case "cbor":
+                return new ObjectMapper(new CBORFactory());
+            default:
+                return objectMapper;
+        }
+    }
+
+    /**
+     * @return A provider serving the generated layers, failing like a file provider on missing paths
+     */
+    ConfigurationSourceProvider sourceProvider() {
+        return path -> {
+            byte[] bytes = resources.get(path);
+            if (bytes == null) {
+                throw new FileNotFoundException(path);
+            }
+            return new ByteArrayInputStream(bytes);
+        };
+    }
+
+    /**
+     * @return Fresh copies of the parsed layers, for operations that consume their input
+     */
+    List<JsonNode> layerCopies() {
+        return parsedLayers.stream().<JsonNode>map(JsonNode::deepCopy).collect(Collectors.toList());
+    }
+
+    /**
+     * @param stream Stream to read fully
+     * @return Number of bytes read
+     */
+    static long drain(InputStream stream) throws Exception {
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    private ObjectNode tree(int layer, int level, String pointer) {
+        ObjectNode node = JsonUtils.objectNode();
+        for (int i = 0; i < width; i++) {
+            if (layer > 0 && i > 0 && random.nextBoolean()) {
+                continue;
+            }
+            String key = "k" + i;
+            String childPointer = pointer + "/" + key;
+            if (level > 1) {
+                node.set(key, tree(layer, level - 1, childPointer));
+            } else if (i % 4 == 3) {
+                node.set(key, array(layer, childPointer));
+            } else {
+                node.set(key, leaf(layer, i, childPointer));
+            }
+        }
+        return node;
+    }
+
+    private ArrayNode array(int layer, String pointer) {
+        ArrayNode array = JsonUtils.arrayNode();
+        for (int i = 0; i < arrayLength; i++) {
+            array.add(leaf(layer, i + 1, pointer + "/" + i));
+        }
+        return array;
+    }
+
+    private JsonNode leaf(int layer, int index, String pointer) {
+        if (index > 0 && random.nextDouble() < placeholderDensity) {
+            return random.nextBoolean()
+                    ? JsonUtils.textNode("ref:${" + anchor() + "}")
+                    : JsonUtils.textNode("${configstack.bench." + index + "||fallback-" + layer + "}");
+        }
+        return index % 2 == 0
+                ? JsonUtils.textNode("value-" + layer + pointer)
+                : objectMapper.getNodeFactory().numberNode(layer * 1000 + index);
+    }
+
+    /**
+     * @return Pointer to the first leaf, which is always a plain value in the base layer
+     */
+    private String anchor() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("/k0");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,253 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The synthetic {@value #NAME} stack element, e.g. {@code server prod,auto}.  Instead of being read from a
+ * resource, the layer is derived from the {@link HostResources host resources}: Jetty's thread pool and request
+ * queue, the application connectors' acceptor and selector threads, and the queue sizes of the log appenders.
+ * It is stacked like any other element, so later elements override it.
+ * <p>
+ * The loader {@link #loaded() loads} the host resources in its place, so they count towards its content hash.
+ * The {@link DefaultConfigurationAssembler assembler} then derives the layer from them when it gets to it, from
+ * the layers below, already combined, and the layers above, already parsed, so no layer is parsed twice.  The
+ * layers below decide which connectors and appenders to tune, and the whole stack decides the server type.
+ * Connectors and appenders are set by overlaying their arrays element by element, so they are left alone unless
+ * arrays are {@link ArrayStrategy#OVERLAY overlaid}.  Where the layers below have none, the layer stands in for
+ * Dropwizard's default http connector and console appender.
+ */
+final class AutoLayer {
+
+    static final String NAME = "auto";
+
+    static final String PATH = "configstack-auto.json";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Supplier<HostResources> host;
+
+    private final ArrayStrategy arrayStrategy;
+
+    private final ProgressLogger progressLogger;
+
+    /**
+     * @param host           Supplies the host resources, once per load
+     * @param arrayStrategy  How config arrays are combined
+     * @param progressLogger Told about the derived values and why
+     */
+    AutoLayer(Supplier<HostResources> host, ArrayStrategy arrayStrategy, ProgressLogger progressLogger) {
+        this.host = Objects.requireNonNull(host, "host");
+        this.arrayStrategy = Objects.requireNonNull(arrayStrategy, "arrayStrategy");
+        this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
+    }
+
+    /**
+     * @return The layer as loaded, holding the host resources to derive it from
+     */
+    LoadedData loaded() {
+        HostResources resources = Objects.requireNonNull(host.get(), "host resources");
+        ObjectNode node = JsonUtils.objectNode()
+                .put("cpus", resources.cpus())
+                .put("heap", resources.maxHeap())
+                .put("memory", resources.memory())
+                .put("fds", resources.maxFileDescriptors());
+        try {
+            return LoadedData.create(PATH, new ByteArrayInputStream(OBJECT_MAPPER.writeValueAsBytes(node)));
+        } catch (Exception e) {
+            throw new IllegalStateException(this + " failed to write " + node, e);
+        }
+    }
+
+    /**
+     * @param loaded The parsed content of the {@link #loaded() loaded} layer
+     * @param below  The combined layers below
+     * @param above  The parsed layers above, in stacking order, empty ones null
+     * @return The layer
+     */
+    JsonNode layer(JsonNode loaded, JsonNode below, List<JsonNode> above) {
+        HostResources resources = new HostResources(
+                loaded.path("cpus").asInt(),
+                loaded.path("heap").asLong(),
+                loaded.path("memory").asLong(),
+                loaded.path("fds").asLong());
+        Derivation derivation = derive(resources, below, above);
+        progressLogger.println(() -> getClass().getSimpleName() + ": Derived from " + resources + ":\n  " +
+                String.join("\n  ", derivation.reasons) + "\n");
+        return derivation.layer;
+    }
+
+    /**
+     * @param above Parsed layers
+     * @return The last server type set by the layers, or null if none does
+     */
+    static String serverType(List<JsonNode> above) {
+        String serverType = null;
+        for (JsonNode layer : above) {
+            JsonNode type = layer == null ? null : layer.at("/server/type");
+            if (type != null && type.isTextual()) {
+                serverType = type.textValue();
+            }
+        }
+        return serverType;
+    }
+
+    /**
+     * @param host  Host resources
+     * @param base  The combined layers below
+     * @param above The parsed layers above, which may set the server type
+     * @return The layer's settings, and the reasons for them
+     */
+    Derivation derive(HostResources host, JsonNode base, List<JsonNode> above) {
+        Derivation derivation = new Derivation();
+        int cpus = host.cpus();
+        long fds = host.maxFileDescriptors();
+        String serverType = serverType(above);
+        boolean simple = "simple".equals(serverType == null ? base.at("/server/type").asText() : serverType);
+
+        JsonNode configuredConnectors = base.at(simple ? "/server/connector" : "/server/applicationConnectors");
+        int connectors = simple || !configuredConnectors.isArray() ? 1 : Math.max(1, configuredConnectors.size());
+        Value acceptors = Value.of(cpus / 4, "cpus / 4").atLeast(1, "at least one").atMost(4, "at most 4");
+        Value selectors = Value.of(cpus / 2, "cpus / 2").atLeast(1, "at least one").atMost(16, "at most 16");
+        long connectorThreads = connectors * (acceptors.value + selectors.value);
+
+        Value maxThreads = Value.of(cpus * 32L, "cpus * 32")
+                .atMost(1024, "at most 1024")
+                .atMost(host.memory() / (4L * 1024L * 1024L), "1 MB stacks in a quarter of memory")
+                .atMost(fds > 0 ? fds / 4 : Long.MAX_VALUE, "a quarter of " + fds + " fds")
+                .atLeast(64, "at least 64")
+                .atLeast(connectorThreads + 8, connectorThreads + " acceptor and selector threads, and 8 workers");
+        Value minThreads = Value.of(cpus * 2L, "cpus * 2")
+                .atLeast(8, "at least 8")
+                .atMost(maxThreads.value, "at most maxThreads");
+        Value maxQueuedRequests = Value.of(maxThreads.value * 4, "maxThreads * 4")
+                .atMost(8192, "at most 8192")
+                .atMost(fds > 0 ? fds / 2 : Long.MAX_VALUE, "half of " + fds + " fds, as queued requests hold one")
+                .atLeast(256, "at least 256");
+        Value queueSize = Value.of(cpus * 256L, "cpus * 256")
+                .atMost(8192, "at most 8192")
+                .atMost(host.maxHeap() / (100L * 1024L), "1 KB events in 1% of heap")
+                .atLeast(256, "at least 256, Dropwizard's default");
+
+        ObjectNode server = derivation.layer.putObject("server");
+        derivation.set(server, "/server", "maxThreads", maxThreads);
+        derivation.set(server, "/server", "minThreads", minThreads);
+        derivation.set(server, "/server", "maxQueuedRequests", maxQueuedRequests);
+
+        if (simple) {
+            ObjectNode connector = server.putObject("connector");
+            if (configuredConnectors.isMissingNode()) {
+                connector.put("type", "http");
+            }
+            derivation.set(connector, "/server/connector", "acceptorThreads", acceptors);
+            derivation.set(connector, "/server/connector", "selectorThreads", selectors);
+        } else if (overlays()) {
+            ArrayNode array = server.putArray("applicationConnectors");
+            for (int i = 0; i < connectors; i++) {
+                ObjectNode connector = array.addObject();
+                if (!configuredConnectors.isArray()) {
+                    connector.put("type", "http");
+                }
+                String pointer = "/server/applicationConnectors/" + i;
+                derivation.set(connector, pointer, "acceptorThreads", acceptors);
+                derivation.set(connector, pointer, "selectorThreads", selectors);
+            }
+        }
+
+        JsonNode configuredAppenders = base.at("/logging/appenders");
+        if (overlays()) {
+            ArrayNode array = derivation.layer.putObject("logging").putArray("appenders");
+            int appenders = configuredAppenders.isArray() ? configuredAppenders.size() : 1;
+            for (int i = 0; i < appenders; i++) {
+                ObjectNode appender = array.addObject();
+                if (!configuredAppenders.isArray()) {
+                    appender.put("type", "console");
+                }
+                derivation.set(appender, "/logging/appenders/" + i, "queueSize", queueSize);
+            }
+        }
+        if (!overlays()) {
+            derivation.reasons.add((simple ? "Appenders" : "Application connectors and appenders") +
+                    " left alone, as arrays are combined with " + arrayStrategy + ", not " + ArrayStrategy.OVERLAY);
+        }
+        return derivation;
+    }
+
+    private boolean overlays() {
+        return arrayStrategy == ArrayStrategy.OVERLAY;
+    }
+
+    /**
+     * The settings of the layer, and the reasons for them, one line per setting.
+     */
+    static final class Derivation {
+
+        private final ObjectNode layer = JsonUtils.objectNode();
+
+        private final List<String> reasons = new ArrayList<>();
+
+        private void set(ObjectNode node, String pointer, String field, Value value) {
+            node.put(field, value.value);
+            reasons.add(pointer + "/" + field + " = " + value.value + ": " + value.reason);
+        }
+
+        /**
+         * @return The settings
+         */
+        ObjectNode getLayer() {
+            return layer;
+        }
+
+        /**
+         * @return The reasons, one line per setting
+         */
+        List<String> getReasons() {
+            return reasons;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[" + layer + "]";
+        }
+    }
+
+    /**
+     * A derived value, with the bounds that applied to it.
+     */
+    private static final class Value {
+
+        private final long value;
+
+        private final String reason;
+
+        private static Value of(long value, String reason) {
+            return new Value(value, reason);
+        }
+
+        private Value(long value, String reason) {
+            this.value = value;
+            this.reason = reason;
+        }
+
+        private Value atMost(long bound, String why) {
+            return value > bound ? new Value(bound, reason + ", " + why) : this;
+        }
+
+        private Value atLeast(long bound, String why) {
+            return value < bound ? new Value(bound, reason + ", " + why) : this;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + arrayStrategy + " " + host + "]";
+    }
+}
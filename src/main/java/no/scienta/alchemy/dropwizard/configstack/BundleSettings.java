@@ -0,0 +1,100 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The settings of a {@link ConfigStackBundler}, set by the bundler and copied by each {@link ConfigStackBundle} it
+ * builds.  See the bundler for what they mean.
+ */
+final class BundleSettings {
+
+    final Class<?> configurationClass;
+
+    ConfigurationStacker configurationStacker;
+
+    ConfigurationResourceResolver configurationResourceResolver;
+
+    ConfigurationLoader configurationLoader;
+
+    ConfigurationAssembler configurationBuilder;
+
+    ConfigurationSubstitutor configurationSubstitutor;
+
+    final List<String> common = new ArrayList<>();
+
+    StringSubstitutor substitutor;
+
+    ArrayStrategy arrayStrategy = ArrayStrategy.OVERLAY;
+
+    ProgressLogger progressLogger;
+
+    boolean classpathResources;
+
+    boolean classpathResourceIndex;
+
+    boolean directoryIndex;
+
+    boolean variableSubstitutions;
+
+    int loadingConcurrency = 1;
+
+    int cacheSize;
+
+    Path snapshotDirectory;
+
+    int maxSnapshots;
+
+    Path layerCacheDirectory;
+
+    int maxCachedLayers;
+
+    Duration reloadDebounce;
+
+    Duration reloadPollInterval;
+
+    boolean memoryAccounting;
+
+    String preassembly;
+
+    final Map<String, VariableSource> variableSources = new LinkedHashMap<>();
+
+    boolean fileLookups;
+
+    boolean trimFileLookups;
+
+    boolean autoLayer;
+
+    BundleSettings(Class<?> configurationClass, ProgressLogger progressLogger) {
+        this.configurationClass = Objects.requireNonNull(configurationClass, "configurationClass");
+        this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
+    }
+
+    @Override
+    public String toString() {
+        return (common.isEmpty() ? "" : "  common: " + String.join(", ", common) + "\n") +
+                ("  fall back to classpath: " + classpathResources + "\n") +
+                ("  classpath resource index: " + classpathResourceIndex + "\n") +
+                ("  directory index: " + directoryIndex + "\n") +
+                ("  variable substitutions: " + variableSubstitutions + "\n") +
+                ("  loading concurrency: " + loadingConcurrency + "\n") +
+                ("  cache size: " + cacheSize + "\n") +
+                (snapshotDirectory == null ? ""
+                        : "  snapshots: " + snapshotDirectory + ", max " + maxSnapshots + "\n") +
+                (layerCacheDirectory == null ? ""
+                        : "  layer cache: " + layerCacheDirectory + ", max " + maxCachedLayers + "\n") +
+                (reloadDebounce == null ? ""
+                        : "  reloading: debounce " + reloadDebounce + ", poll " + reloadPollInterval + "\n") +
+                ("  memory accounting: " + memoryAccounting + "\n") +
+                (preassembly == null ? "" : "  preassembly: " + preassembly + "\n") +
+                (variableSources.isEmpty() ? ""
+                        : "  variable sources: " + String.join(", ", variableSources.keySet()) + "\n") +
+                (fileLookups ? "  file lookups: " + (trimFileLookups ? "trimmed" : "as-is") + "\n" : "") +
+                ("  auto layer: " + autoLayer + "\n");
+    }
+}
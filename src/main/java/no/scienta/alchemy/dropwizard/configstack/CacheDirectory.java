@@ -0,0 +1,126 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A directory of cache entries, named by a prefix, a key and a suffix.  Entries are written atomically, readable
+ * by the owner only where supported, and the least recently used entries beyond a limit are deleted.  Several
+ * processes may share a directory.
+ */
+final class CacheDirectory {
+
+    private final Path directory;
+
+    private final String prefix;
+
+    private final String suffix;
+
+    private final int maxEntries;
+
+    /**
+     * @param directory  Directory, created as needed
+     * @param prefix     Prefix of entry file names
+     * @param suffix     Suffix of entry file names
+     * @param maxEntries Max number of entries to keep
+     */
+    CacheDirectory(Path directory, String prefix, String suffix, int maxEntries) {
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.prefix = Objects.requireNonNull(prefix, "prefix");
+        this.suffix = Objects.requireNonNull(suffix, "suffix");
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid max entries: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param key Key
+     * @return Path of the entry, which may not exist
+     */
+    Path entry(String key) {
+        return directory.resolve(prefix + key + suffix);
+    }
+
+    /**
+     * Marks an entry as recently used.
+     *
+     * @param entry Entry
+     */
+    void touch(Path entry) throws IOException {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    /**
+     * Writes an entry, then deletes the least recently used entries beyond the limit.
+     *
+     * @param entry   Entry
+     * @param content Writes the content
+     * @param evicted Told about deleted entries
+     */
+    void write(Path entry, ContentWriter content, Consumer<Path> evicted) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, prefix, ".tmp");
+        try {
+            if (temp.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            }
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                content.write(out);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evict(evicted);
+    }
+
+    private void evict(Consumer<Path> evicted) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files
+                    .filter(file -> isEntry(file.getFileName().toString()))
+                    .sorted(Comparator.comparing(CacheDirectory::lastModified).reversed())
+                    .collect(Collectors.toList());
+        }
+        for (Path entry : entries.subList(Math.min(maxEntries, entries.size()), entries.size())) {
+            if (Files.deleteIfExists(entry)) {
+                evicted.accept(entry);
+            }
+        }
+    }
+
+    private boolean isEntry(String name) {
+        return name.startsWith(prefix) && name.endsWith(suffix);
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0L);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + directory + "/" + prefix + "*" + suffix + ", max " + maxEntries + "]";
+    }
+
+    @FunctionalInterface
+    interface ContentWriter {
+
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -1,9 +1,13 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
+import com.google.common.base.Suppliers;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * Adult {@link ConfigurationSourceProvider} which properly uses the {@link Thread#currentThread()} and its
@@ -15,17 +19,38 @@ final class ClasspathFallbackProvider implements ConfigurationSourceProvider {
 
     private final ClassLoader classLoader;
 
+    private final Supplier<Optional<ClasspathResourceIndex>> index;
+
     ClasspathFallbackProvider(ConfigurationSourceProvider provider, ClassLoader classLoader) {
+        this(provider, classLoader, false);
+    }
+
+    /**
+     * @param provider    Provider to try first
+     * @param classLoader Class loader, defaults to the context class loader
+     * @param indexed     Whether to look up resources in a {@link ClasspathResourceIndex}, if one can be built
+     */
+    ClasspathFallbackProvider(ConfigurationSourceProvider provider, ClassLoader classLoader, boolean indexed) {
         this.delegate = provider;
         this.classLoader = classLoader != null ? classLoader : Thread.currentThread().getContextClassLoader();
+        this.index = indexed
+                ? Suppliers.memoize(() -> ClasspathResourceIndex.forClassLoader(this.classLoader))::get
+                : Optional::empty;
     }
 
     @Override
     public InputStream open(String path) throws IOException {
         InputStream fromDelegate = delegate(path);
-        return fromDelegate != null ? fromDelegate
-                : classLoader.getResource(path) != null ? classLoader.getResourceAsStream(path)
-                : null;
+        if (fromDelegate != null) {
+            return fromDelegate;
+        }
+        URL url = resource(path);
+        return url == null ? null : url.openStream();
+    }
+
+    private URL resource(String path) {
+        Optional<ClasspathResourceIndex> index = this.index.get();
+        return index.isPresent() ? index.get().find(path) : classLoader.getResource(path);
     }
 
     private InputStream delegate(String path) {
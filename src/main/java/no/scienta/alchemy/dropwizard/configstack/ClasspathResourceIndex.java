@@ -0,0 +1,231 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An index of the config-like resources (see {@link Suffix}) visible to a class loader, mapping resource names
+ * to their URLs.  Built once per class loader by walking its classpath roots in lookup order, so the first root
+ * holding a name wins, as with {@link ClassLoader#getResource(String)}.  Roots containing a generated
+ * {@link #INDEX_RESOURCE index file} are not scanned; the names are read from the file instead.
+ * <p>
+ * An index can only be built when all class loaders up to the system class loader expose their classpath, i.e.
+ * are {@link URLClassLoader URL class loaders}.  Otherwise, {@link #forClassLoader(ClassLoader)} returns empty.
+ */
+final class ClasspathResourceIndex {
+
+    /**
+     * Location of the generated index in a classpath root, see {@link ClasspathResourceIndexer}.
+     */
+    static final String INDEX_RESOURCE = "META-INF/configstack/resources.idx";
+
+    private static final LoadingCache<ClassLoader, Optional<ClasspathResourceIndex>> INDEXES =
+            CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(ClasspathResourceIndex::build));
+
+    private final Map<String, URL> resources;
+
+    /**
+     * @param classLoader Class loader
+     * @return The class loader's index, if its classpath could be enumerated
+     */
+    static Optional<ClasspathResourceIndex> forClassLoader(ClassLoader classLoader) {
+        return INDEXES.getUnchecked(classLoader);
+    }
+
+    private ClasspathResourceIndex(Map<String, URL> resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * @param path Resource name
+     * @return URL of the resource, or null if no such config-like resource is on the classpath
+     */
+    URL find(String path) {
+        return resources.get(path);
+    }
+
+    int size() {
+        return resources.size();
+    }
+
+    private static Optional<ClasspathResourceIndex> build(ClassLoader classLoader) {
+        Optional<List<URL>> roots = roots(classLoader);
+        if (!roots.isPresent()) {
+            return Optional.empty();
+        }
+        Map<String, URL> resources = new HashMap<>();
+        Set<String> visited = new HashSet<>();
+        Deque<URL> queue = new ArrayDeque<>(roots.get());
+        while (!queue.isEmpty()) {
+            URL root = queue.removeFirst();
+            if (visited.add(root.toExternalForm())) {
+                List<URL> classPath = new ArrayList<>();
+                if (!scan(root, resources, classPath)) {
+                    return Optional.empty();
+                }
+                for (int i = classPath.size() - 1; i >= 0; i--) {
+                    queue.addFirst(classPath.get(i));
+                }
+            }
+        }
+        return Optional.of(new ClasspathResourceIndex(Collections.unmodifiableMap(resources)));
+    }
+
+    /**
+     * @param classLoader Class loader
+     * @return Roots, in the order they are searched by the class loader, or empty if they can't be enumerated
+     */
+    private static Optional<List<URL>> roots(ClassLoader classLoader) {
+        ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
+        Deque<List<URL>> chain = new ArrayDeque<>();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            if (loader instanceof URLClassLoader) {
+                chain.addFirst(Arrays.asList(((URLClassLoader) loader).getURLs()));
+            } else if (loader == systemClassLoader) {
+                chain.addFirst(javaClassPath());
+            } else {
+                return Optional.empty();
+            }
+            if (loader == systemClassLoader) {
+                break;
+            }
+        }
+        return Optional.of(chain.stream().flatMap(List::stream).collect(Collectors.toList()));
+    }
+
+    private static List<URL> javaClassPath() {
+        return Arrays.stream(System.getProperty("java.class.path", "").split(File.pathSeparator))
+                .filter(entry -> !entry.isEmpty())
+                .map(entry -> url(new File(entry)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param root      Classpath root
+     * @param resources Resources found so far, which take precedence
+     * @param classPath Receives further roots named by the root's manifest, if any
+     * @return False if the root could not be scanned
+     */
+    private static boolean scan(URL root, Map<String, URL> resources, List<URL> classPath) {
+        try {
+            if ("file".equals(root.getProtocol())) {
+                File file = new File(root.toURI());
+                if (file.isDirectory()) {
+                    scanDirectory(file, resources);
+                } else if (file.isFile()) {
+                    try (JarFile jarFile = new JarFile(file)) {
+                        scanJar(jarFile, "jar:" + root.toExternalForm() + "!/", resources, classPath, root);
+                    }
+                }
+                return true;
+            }
+            URLConnection connection = root.openConnection();
+            if (connection instanceof JarURLConnection) {
+                String base = root.toExternalForm();
+                scanJar(((JarURLConnection) connection).getJarFile(),
+                        base.endsWith("/") ? base : base + "/",
+                        resources, classPath, root);
+                return true;
+            }
+            return false;
+        } catch (IOException | URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static void scanDirectory(File directory, Map<String, URL> resources) throws IOException {
+        File index = new File(directory, INDEX_RESOURCE);
+        if (index.isFile()) {
+            try (InputStream stream = Files.newInputStream(index.toPath())) {
+                indexed(stream, name -> resources.putIfAbsent(name, url(new File(directory, name))));
+            }
+            return;
+        }
+        Path base = directory.toPath();
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(Files::isRegularFile)
+                    .map(path -> base.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .filter(Suffix::anySuffix)
+                    .forEach(name -> resources.putIfAbsent(name, url(new File(directory, name))));
+        }
+    }
+
+    private static void scanJar(JarFile jarFile, String base, Map<String, URL> resources, List<URL> classPath, URL root)
+            throws IOException {
+        JarEntry index = jarFile.getJarEntry(INDEX_RESOURCE);
+        if (index != null) {
+            try (InputStream stream = jarFile.getInputStream(index)) {
+                indexed(stream, name -> resources.putIfAbsent(name, url(base + name)));
+            }
+        } else {
+            jarFile.stream()
+                    .filter(entry -> !entry.isDirectory())
+                    .map(JarEntry::getName)
+                    .filter(Suffix::anySuffix)
+                    .forEach(name -> resources.putIfAbsent(name, url(base + name)));
+        }
+        Manifest manifest = jarFile.getManifest();
+        String manifestClassPath = manifest == null ? null
+                : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        if (manifestClassPath != null) {
+            for (String entry : manifestClassPath.trim().split("\\s+")) {
+                if (!entry.isEmpty()) {
+                    classPath.add(new URL(root, entry));
+                }
+            }
+        }
+    }
+
+    private static void indexed(InputStream stream, Consumer<String> names) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        reader.lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .forEach(names);
+    }
+
+    private static URL url(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("Invalid file: " + file, e);
+        }
+    }
+
+    private static URL url(String spec) {
+        try {
+            return new URL(spec);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("Invalid resource URL: " + spec, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + resources.size() + " resources]";
+    }
+}
@@ -0,0 +1,62 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes a {@link ClasspathResourceIndex#INDEX_RESOURCE resource index} for a classes directory, listing the
+ * config-like resources in it.  Intended to run at build time, before packaging, e.g. with the
+ * {@code exec-maven-plugin} in the {@code process-classes} phase:
+ * <p>
+ * <pre>
+ *     java no.scienta.alchemy.dropwizard.configstack.ClasspathResourceIndexer target/classes
+ * </pre>
+ * <p>
+ * At runtime, the index spares {@link ConfigStackBundler#enableClasspathResourceIndex() indexed lookups} a scan
+ * of the jar.
+ */
+public final class ClasspathResourceIndexer {
+
+    /**
+     * @param args Classes directories to index
+     * @throws IOException If an index could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: " + ClasspathResourceIndexer.class.getName() + " <classes directory>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            Path index = write(new File(arg).toPath());
+            System.out.println("Wrote " + index);
+        }
+    }
+
+    /**
+     * @param directory Classes directory
+     * @return Path of the written index
+     * @throws IOException If the index could not be written
+     */
+    static Path write(Path directory) throws IOException {
+        List<String> names;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            names = paths.filter(Files::isRegularFile)
+                    .map(path -> directory.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .filter(Suffix::anySuffix)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Path index = directory.resolve(ClasspathResourceIndex.INDEX_RESOURCE);
+        Files.createDirectories(index.getParent());
+        return Files.write(index, names, StandardCharsets.UTF_8);
+    }
+
+    private ClasspathResourceIndexer() {
+    }
+}
@@ -0,0 +1,90 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The current value of a subtree of the live config, bound to a type.  A new value is bound when a config with a
+ * different subtree is published, and swapped in atomically.  {@link #get()} is a single volatile read, and
+ * can be called on request paths.  Values are shared by all readers, and should be immutable.
+ *
+ * @param <T> Bound type
+ */
+public final class ConfigHandle<T> implements Supplier<T> {
+
+    private final JsonPointer pointer;
+
+    private final Class<T> type;
+
+    private volatile T value;
+
+    private JsonNode subtree;
+
+    /**
+     * @param pointer JSON pointer to the subtree, empty for the whole config
+     * @param type    Type to bind to
+     */
+    ConfigHandle(String pointer, Class<T> type) {
+        this.pointer = JsonPointer.compile(Objects.requireNonNull(pointer, "pointer"));
+        this.type = Objects.requireNonNull(type, "type");
+    }
+
+    /**
+     * @return The current value
+     * @throws IllegalStateException If no config has been bound yet
+     */
+    @Override
+    public T get() {
+        T value = this.value;
+        if (value == null) {
+            throw new IllegalStateException(this + " not bound yet");
+        }
+        return value;
+    }
+
+    /**
+     * @return JSON pointer to the subtree
+     */
+    String pointer() {
+        return pointer.toString();
+    }
+
+    /**
+     * Binds the subtree of a new config, unless it is unchanged.  Called by one thread at a time.
+     *
+     * @param tree         New config
+     * @param objectMapper Binds the subtree
+     * @return True iff a new value was bound
+     * @throws IllegalArgumentException If the subtree is missing or cannot be bound
+     */
+    boolean bind(JsonNode tree, ObjectMapper objectMapper) {
+        JsonNode subtree = tree.at(pointer);
+        if (subtree.isMissingNode()) {
+            throw new IllegalArgumentException(this + " found nothing at " + pointer);
+        }
+        if (subtree.equals(this.subtree)) {
+            return false;
+        }
+        T value;
+        try {
+            value = objectMapper.treeToValue(subtree, type);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(this + " failed to bind " + subtree, e);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException(this + " bound null from " + subtree);
+        }
+        this.subtree = subtree;
+        this.value = value;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + pointer + " => " + type.getName() + "]";
+    }
+}
@@ -0,0 +1,340 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Re-runs the pipeline when a loaded layer changes, and publishes the new config if its content differs from the
+ * previous one, along with the {@link JsonDiff pointers} to what changed.  Layers are watched with a
+ * {@link WatchService} on their directories, falling back to polling modification times where that is
+ * unavailable.  Changes are debounced, so a burst of writes gives one reload.  Only file-backed layers are
+ * watched.  A new layer in a watched directory also triggers a reload.
+ * <p>
+ * Records reload latency as {@value #LATENCY}, failed reloads as {@value #FAILURES} and published configs as
+ * {@value #PUBLISHED}.
+ */
+final class ConfigReloader implements Managed {
+
+    static final String LATENCY = "configstack.reload.latency";
+
+    static final String FAILURES = "configstack.reload.failures";
+
+    static final String PUBLISHED = "configstack.reload.published";
+
+    private final StackingConfigurationSourceProvider provider;
+
+    private final String serverCommand;
+
+    private final long debounceMillis;
+
+    private final long pollMillis;
+
+    private final BiConsumer<JsonNode, List<String>> publisher;
+
+    private final ProgressLogger progressLogger;
+
+    private final Consumer<Path> directoryChanged;
+
+    private final Timer latency;
+
+    private final Counter failures;
+
+    private final Counter published;
+
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    private volatile Set<Path> files = Collections.emptySet();
+
+    private Map<Path, List<Object>> stamps = Collections.emptyMap();
+
+    private final JsonDiff diff = new JsonDiff();
+
+    private ScheduledExecutorService executor;
+
+    private volatile WatchService watchService;
+
+    private ScheduledFuture<?> polling;
+
+    private ScheduledFuture<?> pending;
+
+    /**
+     * @param provider      Provider that assembled the running config
+     * @param serverCommand The argument to the {@link io.dropwizard.cli.ServerCommand server command}
+     * @param debounceMillis How long to wait for more changes before reloading
+     * @param pollMillis    How often to poll when files cannot be watched
+     * @param publisher     Receives each new config, which must not be modified, and pointers to changed values
+     */
+    ConfigReloader(StackingConfigurationSourceProvider provider,
+                   String serverCommand,
+                   long debounceMillis,
+                   long pollMillis,
+                   BiConsumer<JsonNode, List<String>> publisher,
+                   MetricRegistry metrics,
+                   ProgressLogger progressLogger) {
+        this(provider, serverCommand, debounceMillis, pollMillis, publisher, metrics, progressLogger, null);
+    }
+
+    /**
+     * @param provider         Provider that assembled the running config
+     * @param serverCommand    The argument to the {@link io.dropwizard.cli.ServerCommand server command}
+     * @param debounceMillis   How long to wait for more changes before reloading
+     * @param pollMillis       How often to poll when files cannot be watched
+     * @param publisher        Receives each new config, which must not be modified, and pointers to changed values
+     * @param directoryChanged Told about each watched directory with events, before the reload, e.g. to refresh
+     *                         a {@link IndexedFileConfigurationSourceProvider directory index}, may be null
+     */
+    ConfigReloader(StackingConfigurationSourceProvider provider,
+                   String serverCommand,
+                   long debounceMillis,
+                   long pollMillis,
+                   BiConsumer<JsonNode, List<String>> publisher,
+                   MetricRegistry metrics,
+                   ProgressLogger progressLogger,
+                   Consumer<Path> directoryChanged) {
+        this.provider = Objects.requireNonNull(provider, "provider");
+        this.serverCommand = Objects.requireNonNull(serverCommand, "serverCommand");
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("Invalid debounce: " + debounceMillis);
+        }
+        this.debounceMillis = debounceMillis;
+        if (pollMillis < 1) {
+            throw new IllegalArgumentException("Invalid poll interval: " + pollMillis);
+        }
+        this.pollMillis = pollMillis;
+        this.publisher = Objects.requireNonNull(publisher, "publisher");
+        this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
+        this.directoryChanged = directoryChanged;
+        this.latency = metrics.timer(LATENCY);
+        this.failures = metrics.counter(FAILURES);
+        this.published = metrics.counter(PUBLISHED);
+    }
+
+    /**
+     * Starts watching the layers of the config the provider last assembled, which is the baseline for changes.
+     * Assembles and publishes the config if the provider has not assembled it.
+     */
+    @Override
+    public synchronized void start() throws Exception {
+        if (executor != null) {
+            throw new IllegalStateException(this + " already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(RELOADER_THREADS);
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = WATCHER_THREADS.newThread(this::watch);
+            watcher.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            progressLogger.println(() -> "Cannot watch files, polling every " + pollMillis + "ms: " + e);
+            startPolling();
+        }
+        Optional<JsonNode> baseline = provider.last(serverCommand, this::watch);
+        if (baseline.isPresent()) {
+            diff.next(baseline.get());
+        } else {
+            reload();
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+        polling = null;
+        pending = null;
+        directories.clear();
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private void reload() {
+        Timer.Context time = latency.time();
+        try {
+            JsonNode tree = provider.reload(serverCommand, this::watch);
+            List<String> changes = diff.next(tree);
+            if (changes.isEmpty()) {
+                progressLogger.println(() -> "Config unchanged for <" + serverCommand + ">");
+                return;
+            }
+            publisher.accept(tree, changes);
+            published.inc();
+            progressLogger.println(() -> "Config reloaded for <" + serverCommand + ">, changed: " + changes);
+        } catch (Exception e) {
+            failures.inc();
+            progressLogger.println(() -> "Failed to reload config for <" + serverCommand + ">, keeping previous: " + e);
+        } finally {
+            time.stop();
+        }
+    }
+
+    private void watch(Collection<LoadedData> loaded) {
+        Set<Path> files = loaded.stream()
+                .map(LoadedData::getPath)
+                .map(ConfigReloader::file)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Path, List<Object>> stamps = new HashMap<>();
+        for (Path file : files) {
+            stamps.put(file, stamp(file));
+        }
+        synchronized (this) {
+            this.stamps = stamps;
+            this.files = files;
+        }
+        for (Path file : files) {
+            Path directory = file.getParent();
+            if (watchService != null && directory != null && directories.add(directory)) {
+                try {
+                    directory.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                } catch (Exception e) {
+                    progressLogger.println(() ->
+                            "Cannot watch " + directory + ", polling every " + pollMillis + "ms: " + e);
+                    startPolling();
+                }
+            }
+        }
+    }
+
+    private void watch() {
+        WatchService watchService = this.watchService;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean added = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    added |= event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                            event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+                                    Suffix.anySuffix(event.context().toString());
+                }
+                key.reset();
+                if (directoryChanged != null) {
+                    directoryChanged.accept((Path) key.watchable());
+                }
+                if (restamped() || added) {
+                    changed();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignore) {
+        }
+    }
+
+    private synchronized void startPolling() {
+        if (polling == null && executor != null) {
+            polling = executor.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        if (restamped()) {
+            changed();
+        }
+    }
+
+    /**
+     * Events are not matched against the watched files, since a file may change without an event for its own
+     * name, e.g. when a Kubernetes volume swaps the {@code ..data} symlink its files link through.
+     *
+     * @return True iff a watched file was modified, replaced or deleted since it was last stamped
+     */
+    private synchronized boolean restamped() {
+        Map<Path, List<Object>> stamps = new HashMap<>();
+        boolean changed = false;
+        for (Path file : files) {
+            List<Object> stamp = stamp(file);
+            stamps.put(file, stamp);
+            changed |= !Objects.equals(this.stamps.get(file), stamp);
+        }
+        this.stamps = stamps;
+        return changed;
+    }
+
+    private synchronized void changed() {
+        if (executor == null) {
+            return;
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(this::reload, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Path file(String path) {
+        try {
+            Path file = Paths.get(path).toAbsolutePath().normalize();
+            return Files.isRegularFile(file) ? file : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Modification time, size and file key of the file, following symlinks, or null if it is gone
+     */
+    private static List<Object> stamp(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return Arrays.asList(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final ThreadFactory RELOADER_THREADS = new ThreadFactoryBuilder()
+            .setNameFormat("configstack-reloader-%d")
+            .setDaemon(true)
+            .build();
+
+    private static final ThreadFactory WATCHER_THREADS = new ThreadFactoryBuilder()
+            .setNameFormat("configstack-watcher-%d")
+            .setDaemon(true)
+            .build();
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[<" + serverCommand + "> " + files + "]";
+    }
+}
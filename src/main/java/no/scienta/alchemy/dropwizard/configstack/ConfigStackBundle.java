@@ -1,21 +1,35 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
 import io.dropwizard.Bundle;
 import io.dropwizard.Configuration;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
-final class ConfigStackBundle implements Bundle, BundleFondle {
+final class ConfigStackBundle implements Bundle, BundleFondle, LiveConfiguration {
 
     private final Class<?> configurationClass;
 
@@ -29,8 +43,40 @@ final class ConfigStackBundle implements Bundle, BundleFondle {
 
     private final boolean classpathResources;
 
+    private final boolean classpathResourceIndex;
+
+    private final boolean directoryIndex;
+
     private final boolean variableSubstitutions;
 
+    private final int loadingConcurrency;
+
+    private final int cacheSize;
+
+    private final Path snapshotDirectory;
+
+    private final int maxSnapshots;
+
+    private final Path layerCacheDirectory;
+
+    private final int maxCachedLayers;
+
+    private final Duration reloadDebounce;
+
+    private final Duration reloadPollInterval;
+
+    private final boolean memoryAccounting;
+
+    private final String preassembly;
+
+    private final Map<String, VariableSource> variableSources;
+
+    private final boolean fileLookups;
+
+    private final boolean trimFileLookups;
+
+    private final boolean autoLayer;
+
     private final ConfigurationStacker configurationStacker;
 
     private final ConfigurationLoader configurationLoader;
@@ -41,51 +87,85 @@ final class ConfigStackBundle implements Bundle, BundleFondle {
 
     private final StringSubstitutor substitutor;
 
-    ConfigStackBundle(Class<?> configurationClass,
-                      ConfigurationResourceResolver configurationResourceResolver,
-                      List<String> commonConfigs,
-                      ProgressLogger progressLogger,
-                      ArrayStrategy arrayStrategy,
-                      boolean classpathResources,
-                      boolean variableSubstitutions,
-                      ConfigurationStacker configurationStacker,
-                      ConfigurationLoader configurationLoader,
-                      ConfigurationAssembler configurationBuilder,
-                      ConfigurationSubstitutor configurationSubstitutor,
-                      StringSubstitutor substitutor) {
-        this.configurationClass = Objects.requireNonNull(configurationClass, "configurationClass");
-        this.configurationResourceResolver = configurationResourceResolver;
-        this.commonConfigs = commonConfigs == null || commonConfigs.isEmpty()
-                ? Collections.emptyList()
-                : ImmutableList.copyOf(commonConfigs);
-        this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
-        this.arrayStrategy = Objects.requireNonNull(arrayStrategy, "arrayStrategy");
-        this.classpathResources = classpathResources;
-        this.variableSubstitutions = variableSubstitutions;
-        this.configurationStacker = configurationStacker;
-        this.configurationLoader = configurationLoader;
-        this.configurationBuilder = configurationBuilder;
-        this.configurationSubstitutor = configurationSubstitutor;
-        this.substitutor = substitutor;
+    /**
+     * Providers for {@link #read(Class, String, ObjectMapper)}, shared so reads can share pipeline runs.
+     */
+    private final LoadingCache<ObjectMapper, StackingConfigurationSourceProvider> readProviders =
+            CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(objectMapper ->
+                    buildProvider(null, objectMapper, Thread.currentThread().getContextClassLoader())));
+
+    /**
+     * Directory indexes of the providers, to be refreshed when watched directories change.
+     */
+    private final Set<IndexedFileConfigurationSourceProvider> directoryIndexes =
+            Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    /**
+     * Default loaders of the providers, whose loading threads are stopped with the application.
+     */
+    private final Set<DefaultConfigurationLoader> loaders =
+            Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    private final PointerTrie<Listener> listeners = new PointerTrie<>();
+
+    private volatile StackingConfigurationSourceProvider provider;
+
+    private final PointerTrie<ConfigHandle<?>> handles = new PointerTrie<>();
+
+    private volatile JsonNode configTree;
+
+    private volatile ObjectMapper objectMapper;
+
+    /**
+     * @param settings Settings of the bundler, copied so the bundler can go on changing them
+     */
+    ConfigStackBundle(BundleSettings settings) {
+        this.configurationClass = settings.configurationClass;
+        this.configurationResourceResolver = settings.configurationResourceResolver;
+        this.commonConfigs = ImmutableList.copyOf(settings.common);
+        this.progressLogger = Objects.requireNonNull(settings.progressLogger, "progressLogger");
+        this.arrayStrategy = Objects.requireNonNull(settings.arrayStrategy, "arrayStrategy");
+        this.classpathResources = settings.classpathResources;
+        this.classpathResourceIndex = settings.classpathResourceIndex;
+        this.directoryIndex = settings.directoryIndex;
+        this.variableSubstitutions = settings.variableSubstitutions;
+        this.loadingConcurrency = settings.loadingConcurrency;
+        this.cacheSize = settings.cacheSize;
+        this.snapshotDirectory = settings.snapshotDirectory;
+        this.maxSnapshots = settings.maxSnapshots;
+        this.layerCacheDirectory = settings.layerCacheDirectory;
+        this.maxCachedLayers = settings.maxCachedLayers;
+        this.reloadDebounce = settings.reloadDebounce;
+        this.reloadPollInterval = settings.reloadPollInterval;
+        this.memoryAccounting = settings.memoryAccounting;
+        this.preassembly = settings.preassembly;
+        this.variableSources = ImmutableMap.copyOf(settings.variableSources);
+        this.fileLookups = settings.fileLookups;
+        this.trimFileLookups = settings.trimFileLookups;
+        this.autoLayer = settings.autoLayer;
+        this.configurationStacker = settings.configurationStacker;
+        this.configurationLoader = settings.configurationLoader;
+        this.configurationBuilder = settings.configurationBuilder;
+        this.configurationSubstitutor = settings.configurationSubstitutor;
+        this.substitutor = settings.substitutor;
     }
 
     @Override
     public <C extends Configuration> C read(Class<C> configClass, String path, ObjectMapper objectMapper)
             throws IOException {
-        ConfigurationSourceProvider provider = buildProvider(
-                null,
-                objectMapper,
-                Thread.currentThread().getContextClassLoader());
-        InputStream data = provider.open(path);
-        return objectMapper.readerFor(configClass).readValue(data);
+        StackingConfigurationSourceProvider provider = readProviders.getUnchecked(objectMapper);
+        return objectMapper.readerFor(configClass).readValue(provider.tree(path));
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void initialize(Bootstrap<?> bootstrap) {
         failOnMisconfiguration(bootstrap);
-        StackingConfigurationSourceProvider provider = buildProvider(bootstrap);
+        provider = buildProvider(bootstrap);
         instrumentBootstrap(bootstrap, getConfigurationResourceResolver(), provider);
+        if (preassembly != null) {
+            provider.openAsync(preassembly);
+        }
     }
 
     private StackingConfigurationSourceProvider buildProvider(Bootstrap<?> bootstrap) {
@@ -100,23 +180,62 @@ final class ConfigStackBundle implements Bundle, BundleFondle {
             ObjectMapper objectMapper,
             ClassLoader classLoader) {
         ConfigurationResourceResolver configurationResourceResolver = getConfigurationResourceResolver();
-        ConfigurationSourceProvider delegate =
-                existingProvider == null ? new FileConfigurationSourceProvider() : existingProvider;
+        ConfigurationSourceProvider delegate = getDelegateProvider(existingProvider);
 
         ConfigurationSourceProvider provider = classpathResources
-                ? new ClasspathFallbackProvider(delegate, classLoader)
+                ? new ClasspathFallbackProvider(delegate, classLoader, classpathResourceIndex)
                 : delegate;
 
-        ConfigurationLoader configurationLoader = getConfigurationLoader(configurationResourceResolver, provider);
+        AutoLayer auto = getAutoLayer();
+        ConfigurationLoader configurationLoader = getConfigurationLoader(configurationResourceResolver, provider, auto);
 
         return new StackingConfigurationSourceProvider(
                 getConfigurationStacker(),
                 configurationResourceResolver,
                 configurationLoader,
-                getConfigurationBuilder(objectMapper),
+                getConfigurationBuilder(objectMapper, auto),
                 getConfigurationSubstitutor(),
                 objectMapper,
-                progressLogger);
+                progressLogger,
+                cacheSize,
+                getSnapshotCache(objectMapper),
+                memoryAccounting);
+    }
+
+    private SnapshotCache getSnapshotCache(ObjectMapper objectMapper) {
+        if (snapshotDirectory == null) {
+            return null;
+        }
+        if (configurationSubstitutor != null || variableSubstitutions && substitutor != null) {
+            progressLogger.println(() ->
+                    "Snapshots need the default substitutors, not using snapshots in " + snapshotDirectory);
+            return null;
+        }
+        if (variableSubstitutions && !variableSources.isEmpty()) {
+            progressLogger.println(() ->
+                    "Snapshots cannot track variable sources, not using snapshots in " + snapshotDirectory);
+            return null;
+        }
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("arrays", arrayStrategy);
+        settings.put("assembler", configurationBuilder == null ? "default" : configurationBuilder.getClass().getName());
+        settings.put("substitutor", variableSubstitutions ? "default" : "none");
+        settings.put("fileLookups", !variableSubstitutions || !fileLookups ? "none"
+                : trimFileLookups ? "trimmed" : "as-is");
+        return new SnapshotCache(snapshotDirectory, maxSnapshots, settings, objectMapper, progressLogger);
+    }
+
+    private ConfigurationSourceProvider getDelegateProvider(ConfigurationSourceProvider existingProvider) {
+        if (directoryIndex) {
+            if (existingProvider == null || existingProvider instanceof FileConfigurationSourceProvider) {
+                IndexedFileConfigurationSourceProvider indexed = new IndexedFileConfigurationSourceProvider();
+                directoryIndexes.add(indexed);
+                return indexed;
+            }
+            progressLogger.println(() ->
+                    "Directory index not applicable to custom provider, using as-is: " + existingProvider);
+        }
+        return existingProvider == null ? new FileConfigurationSourceProvider() : existingProvider;
     }
 
     private void instrumentBootstrap(
@@ -153,32 +272,158 @@ final class ConfigStackBundle implements Bundle, BundleFondle {
 
     private ConfigurationSubstitutor getConfigurationSubstitutor() {
         if (configurationSubstitutor != null) {
-            return configurationSubstitutor;
+            return incremental()
+                    ? node -> configurationSubstitutor.substitute(node.deepCopy()) // May not be copy-on-write
+                    : configurationSubstitutor;
         }
         if (variableSubstitutions) {
-            return new DefaultConfigurationSubstitutor(substitutor);
+            if (substitutor != null && (fileLookups || !variableSources.isEmpty())) {
+                progressLogger.println(() ->
+                        "Variable sources and file lookups need the default substitutor, not used by " + substitutor);
+            }
+            return new DefaultConfigurationSubstitutor(
+                    substitutor,
+                    variableSources,
+                    fileLookups ? new FileVariableSource(trimFileLookups) : null);
         }
         return node -> node;
     }
 
-    private ConfigurationAssembler getConfigurationBuilder(ObjectMapper objectMapper) {
+    private ConfigurationAssembler getConfigurationBuilder(ObjectMapper objectMapper, AutoLayer auto) {
         return configurationBuilder != null ? configurationBuilder
-                : new DefaultConfigurationAssembler(objectMapper, arrayStrategy);
+                : new DefaultConfigurationAssembler(objectMapper, arrayStrategy, getLayerCache(), incremental(), auto);
+    }
+
+    private AutoLayer getAutoLayer() {
+        if (!autoLayer) {
+            return null;
+        }
+        if (configurationLoader != null || configurationBuilder != null) {
+            progressLogger.println(() -> "The auto layer needs the default loader and assembler, not deriving it");
+            return null;
+        }
+        return new AutoLayer(HostResources::detect, arrayStrategy, progressLogger);
+    }
+
+    private boolean incremental() {
+        return configurationBuilder == null && reloadDebounce != null;
+    }
+
+    private LayerCache getLayerCache() {
+        return layerCacheDirectory == null ? null
+                : new LayerCache(layerCacheDirectory, maxCachedLayers, progressLogger);
     }
 
     private ConfigurationLoader getConfigurationLoader(ConfigurationResourceResolver configurationResourceResolver,
-                                                       ConfigurationSourceProvider configurationSourceProvider) {
+                                                       ConfigurationSourceProvider configurationSourceProvider,
+                                                       AutoLayer autoLayer) {
         if (configurationLoader != null) {
             return configurationLoader;
         }
-        return new DefaultConfigurationLoader(
+        DefaultConfigurationLoader loader = new DefaultConfigurationLoader(
                 configurationSourceProvider,
                 configurationResourceResolver,
                 commonConfigs,
-                progressLogger);
+                progressLogger,
+                loadingConcurrency,
+                autoLayer);
+        loaders.add(loader);
+        return loader;
+    }
+
+    @Override
+    public Optional<JsonNode> getConfigTree() {
+        return Optional.ofNullable(configTree);
+    }
+
+    @Override
+    public void addListener(String pointer, Consumer<JsonNode> listener) {
+        listeners.add(pointer, new Listener(pointer, listener));
+    }
+
+    @Override
+    public <T> ConfigHandle<T> getHandle(String pointer, Class<T> type) {
+        ConfigHandle<T> handle = new ConfigHandle<>(pointer, type);
+        synchronized (handles) {
+            if (configTree != null) {
+                handle.bind(configTree, objectMapper);
+            }
+            handles.add(handle.pointer(), handle);
+        }
+        return handle;
     }
 
     @Override
     public void run(Environment environment) {
+        if (provider != null) {
+            provider.metrics().register(environment.metrics());
+        }
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+                loaders.forEach(DefaultConfigurationLoader::close);
+            }
+        });
+        objectMapper = environment.getObjectMapper();
+        if (provider != null) {
+            provider.lastTree().ifPresent(tree -> bind(tree, Collections.singletonList("")));
+        }
+        if (reloadDebounce == null) {
+            return;
+        }
+        Optional<String> serverCommand = provider == null ? Optional.empty() : provider.lastServerCommand();
+        if (!serverCommand.isPresent()) {
+            progressLogger.println(() -> "No stacked config was loaded, not reloading");
+            return;
+        }
+        environment.lifecycle().manage(new ConfigReloader(
+                provider,
+                serverCommand.get(),
+                reloadDebounce.toMillis(),
+                reloadPollInterval.toMillis(),
+                this::publish,
+                environment.metrics(),
+                progressLogger,
+                directory -> directoryIndexes.forEach(index -> index.invalidate(directory))));
+    }
+
+    private void publish(JsonNode configTree, List<String> changes) {
+        bind(configTree, changes);
+        for (Listener listener : listeners.affected(changes)) {
+            try {
+                listener.listener.accept(configTree.at(listener.pointer));
+            } catch (Exception e) {
+                progressLogger.println(() -> "Config listener " + listener.listener + " failed: " + e);
+            }
+        }
+    }
+
+    private void bind(JsonNode configTree, List<String> changes) {
+        synchronized (handles) {
+            for (ConfigHandle<?> handle : handles.affected(changes)) {
+                try {
+                    handle.bind(configTree, objectMapper);
+                } catch (Exception e) {
+                    progressLogger.println(() -> "Keeping previous value of " + handle + ": " + e);
+                }
+            }
+            this.configTree = configTree;
+        }
+    }
+
+    private static final class Listener {
+
+        private final JsonPointer pointer;
+
+        private final Consumer<JsonNode> listener;
+
+        private Listener(String pointer, Consumer<JsonNode> listener) {
+            this.pointer = JsonPointer.compile(pointer);
+            this.listener = Objects.requireNonNull(listener, "listener");
+        }
     }
 }
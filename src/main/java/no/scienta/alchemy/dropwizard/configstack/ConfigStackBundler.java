@@ -3,6 +3,8 @@ package no.scienta.alchemy.dropwizard.configstack;
 import io.dropwizard.Bundle;
 import io.dropwizard.Configuration;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -76,6 +78,26 @@ public interface ConfigStackBundler<C extends Configuration> {
      */
     ConfigStackBundler<C> enableClasspathResources();
 
+    /**
+     * Enable classpath resources loading, and look them up in an index of the config-like resources on the
+     * classpath.  The index is built once per class loader, from {@link ClasspathResourceIndexer generated
+     * index files} where present, else by scanning the classpath.  Lookups fall back to the class loader if
+     * its classpath can't be enumerated.
+     *
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableClasspathResourceIndex();
+
+    /**
+     * Resolve file resources through a directory index.  Each directory is listed once, and only candidates
+     * found in the listing are opened, so missing candidates cost a lookup instead of a failed open.  Applies
+     * only when the bootstrap uses the default file-based
+     * {@link io.dropwizard.configuration.ConfigurationSourceProvider}.
+     *
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableDirectoryIndex();
+
     /**
      * Turn variable substitutions on.  Turns on use of a {@link ConfigurationSubstitutor} on the end result JSON.
      *
@@ -124,6 +146,121 @@ public interface ConfigStackBundler<C extends Configuration> {
      */
     ConfigStackBundler<C> setSubstitutor(StringSubstitutor substitutor);
 
+    /**
+     * Probe and load candidate resources concurrently, on a bounded pool of at most {@code concurrency}
+     * threads.  Useful when each probe is a round trip, e.g. on network-mounted config volumes.  Resources
+     * are still stacked in the same order.  The pool is kept between loads, and stopped with the application.
+     *
+     * @param concurrency Max number of concurrent probes, 1 for sequential loading (the default)
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableConcurrentLoading(int concurrency);
+
+    /**
+     * Memoize assembled configs per server command argument, so repeated reads of the same argument skip
+     * the load/assemble/substitute pipeline.  Concurrent reads of the same argument always share a single
+     * pipeline run, whether caching is enabled or not.  Note that cached configs do not pick up changes to
+     * the underlying resources or variables.
+     *
+     * @param maximumSize Max number of configs to keep, 0 for no caching (the default)
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableCaching(int maximumSize);
+
+    /**
+     * Store snapshots of assembled configs in a directory, so later boots with the same server command argument,
+     * the same layer contents and the same values for the variables used, can skip assembly and substitution.
+     * Snapshots hold the resulting config, including any secrets substituted into it, so the directory should
+     * be private.  Requires the default {@link ConfigurationSubstitutor} and {@link StringSubstitutor}.
+     *
+     * @param directory    Snapshot directory, created as needed
+     * @param maxSnapshots Max number of snapshots to keep, least recently used are deleted
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableSnapshots(Path directory, int maxSnapshots);
+
+    /**
+     * Store parsed YAML layers in a binary format in a directory, so unchanged layers are decoded instead of
+     * parsed.  The directory may be shared by applications loading the same layers, e.g. common configs.  Used
+     * by the default {@link ConfigurationAssembler}.
+     *
+     * @param directory Cache directory, created as needed
+     * @param maxLayers Max number of layers to keep, least recently used are deleted
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableLayerCache(Path directory, int maxLayers);
+
+    /**
+     * Reload the config while the application runs, when a loaded layer changes.  Layer files are watched, or
+     * polled where watching is not supported, and the pipeline is re-run after changes settle.  A new config is
+     * published through the bundle's {@link LiveConfiguration} if its content differs.  Reload latency and
+     * failures are recorded as {@code configstack.reload.*} metrics.
+     *
+     * @param debounce     How long to wait for more changes before reloading
+     * @param pollInterval How often to poll, where files cannot be watched
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableReloading(Duration debounce, Duration pollInterval);
+
+    /**
+     * Account for the memory used by config assembly: the bytes allocated by each pipeline stage on the
+     * assembling thread, and the estimated retained sizes of the loaded layers, parsed layers, merged tree,
+     * substituted tree and serialized config.  Each run is logged to the {@link ProgressLogger}, and the last
+     * run is recorded as {@code configstack.*.allocated} and {@code configstack.retained.*} metrics.  Useful
+     * for sizing heap headroom for startup.
+     *
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableMemoryAccounting();
+
+    /**
+     * Start assembling the config when the bundle is initialized, on a background thread, instead of when the
+     * server command reads it.  Loading and parsing then overlap with the initialization of other bundles.  As
+     * bundles are initialized before the command line is parsed, the bundle needs the application's arguments
+     * to find the server command argument.  Failures surface when the config is read, as without preassembly.
+     *
+     * @param args The application's command line arguments, as passed to {@code main}
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enablePreassembly(String... args);
+
+    /**
+     * Add a source of values for placeholders with a prefix, like {@code ${vault:db/password}} for prefix
+     * {@code vault}.  Prefixed keys go straight to their source.  The prefixes {@code sys}, {@code env},
+     * {@code ptr}, {@code file} and {@code host} are built in, for system properties, env variables, JSON pointers
+     * into the config, file contents and expressions over host resources.  Enables variable substitutions, and is
+     * used by the default {@link StringSubstitutor}.  Configs depending on variable sources are not snapshotted.
+     *
+     * @param prefix Prefix, a letter followed by letters, digits, '-' or '_'
+     * @param source Variable source
+     * @return this bundler
+     * @throws IllegalArgumentException If the prefix is invalid, built in or already added
+     */
+    ConfigStackBundler<C> addVariableSource(String prefix, VariableSource source);
+
+    /**
+     * Resolve {@code ${file:/path}} placeholders to the contents of files, e.g. mounted secrets or TLS material,
+     * so they need not be copied into env variables.  Missing files resolve to nothing, so defaults apply, as in
+     * {@code ${file:/run/secrets/db||changeit}}.  Each file is read once per assembly, and its contents are kept
+     * until its modification time or size changes.  Large files are memory-mapped.  Enables variable
+     * substitutions, and is used by the default {@link StringSubstitutor}.
+     *
+     * @param trimTrailingNewlines Remove newlines at the end of file contents
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableFileLookups(boolean trimTrailingNewlines);
+
+    /**
+     * Derive the {@code auto} stack element from the resources the process gets, i.e. the CPUs and memory of its
+     * container, the heap and the file descriptor limit, instead of loading it.  The derived layer tunes Jetty's
+     * thread pool and request queue, the application connectors and the log appenders, and is stacked like any
+     * other element.  Fails if there is a resource for {@code auto}, which would otherwise be ignored.  Needs the
+     * default loader and assembler, and is left out with custom ones.
+     *
+     * @return this bundler
+     */
+    ConfigStackBundler<C> enableAutoLayer();
+
     /**
      * Set a different array strategy, to be used by the default {@link ConfigurationAssembler}.  If not set,
      * {@link ArrayStrategy#OVERLAY} is used.
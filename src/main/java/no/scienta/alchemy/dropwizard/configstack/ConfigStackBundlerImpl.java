@@ -3,9 +3,9 @@ package no.scienta.alchemy.dropwizard.configstack;
 import io.dropwizard.Bundle;
 import io.dropwizard.Configuration;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -14,77 +14,71 @@ final class ConfigStackBundlerImpl<C extends Configuration> implements ConfigSta
 
     private final Class<C> configurationClass;
 
-    private ConfigurationStacker configurationStacker;
-
-    private ConfigurationResourceResolver configurationResourceResolver;
-
-    private ConfigurationLoader configurationLoader;
-
-    private ConfigurationAssembler configurationBuilder;
-
-    private ConfigurationSubstitutor configurationSubstitutor;
-
-    private final List<String> common = new ArrayList<>();
-
-    private StringSubstitutor substitutor;
-
-    private ArrayStrategy arrayStrategy = ArrayStrategy.OVERLAY;
-
-    private ProgressLogger progressLogger = DEFAULT_PROGRESS_LOGGER;
-
-    private boolean classpathResources;
-
-    private boolean variableSubstitutions;
+    private final BundleSettings settings;
 
     ConfigStackBundlerImpl(Class<C> configurationClass) {
         this.configurationClass = Objects.requireNonNull(configurationClass, "configurationClass");
+        this.settings = new BundleSettings(configurationClass, DEFAULT_PROGRESS_LOGGER);
     }
 
     @Override
     public ConfigStackBundler<C> setConfigurationResourceResolver(ConfigurationResourceResolver configurationResourceResolver) {
-        this.configurationResourceResolver = Objects.requireNonNull(configurationResourceResolver, "configurationResolver");
+        settings.configurationResourceResolver = Objects.requireNonNull(configurationResourceResolver, "configurationResolver");
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> addCommonConfig(String... common) {
-        this.common.addAll(Arrays.asList(common));
+        settings.common.addAll(Arrays.asList(common));
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> enableClasspathResources() {
-        this.classpathResources = true;
+        settings.classpathResources = true;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableClasspathResourceIndex() {
+        enableClasspathResources();
+        settings.classpathResourceIndex = true;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableDirectoryIndex() {
+        settings.directoryIndex = true;
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> enableVariableSubstitutions() {
-        this.variableSubstitutions = true;
+        settings.variableSubstitutions = true;
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> setConfigurationStacker(ConfigurationStacker configurationStacker) {
-        this.configurationStacker = configurationStacker;
+        settings.configurationStacker = configurationStacker;
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> setConfigurationLoader(ConfigurationLoader configurationLoader) {
-        this.configurationLoader = configurationLoader;
+        settings.configurationLoader = configurationLoader;
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> setConfigurationBuilder(ConfigurationAssembler configurationBuilder) {
-        this.configurationBuilder = configurationBuilder;
+        settings.configurationBuilder = configurationBuilder;
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> setConfigurationSubstitutor(ConfigurationSubstitutor configurationSubstitutor) {
-        this.configurationSubstitutor = configurationSubstitutor;
+        settings.configurationSubstitutor = configurationSubstitutor;
         return this;
     }
 
@@ -92,13 +86,105 @@ final class ConfigStackBundlerImpl<C extends Configuration> implements ConfigSta
     public ConfigStackBundler<C> setSubstitutor(StringSubstitutor substitutor) {
         Objects.requireNonNull(substitutor, "substitutor");
         enableVariableSubstitutions();
-        this.substitutor = substitutor;
+        settings.substitutor = substitutor;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableConcurrentLoading(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+        settings.loadingConcurrency = concurrency;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableCaching(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maximumSize);
+        }
+        settings.cacheSize = maximumSize;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableSnapshots(Path directory, int maxSnapshots) {
+        if (maxSnapshots < 1) {
+            throw new IllegalArgumentException("Invalid max snapshots: " + maxSnapshots);
+        }
+        settings.snapshotDirectory = Objects.requireNonNull(directory, "directory");
+        settings.maxSnapshots = maxSnapshots;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableLayerCache(Path directory, int maxLayers) {
+        if (maxLayers < 1) {
+            throw new IllegalArgumentException("Invalid max layers: " + maxLayers);
+        }
+        settings.layerCacheDirectory = Objects.requireNonNull(directory, "directory");
+        settings.maxCachedLayers = maxLayers;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableReloading(Duration debounce, Duration pollInterval) {
+        if (debounce.isNegative()) {
+            throw new IllegalArgumentException("Invalid debounce: " + debounce);
+        }
+        if (pollInterval.toMillis() < 1) {
+            throw new IllegalArgumentException("Invalid poll interval: " + pollInterval);
+        }
+        settings.reloadDebounce = debounce;
+        settings.reloadPollInterval = pollInterval;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableMemoryAccounting() {
+        settings.memoryAccounting = true;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enablePreassembly(String... args) {
+        settings.preassembly = serverCommandArgument(Objects.requireNonNull(args, "args"));
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> addVariableSource(String prefix, VariableSource source) {
+        Objects.requireNonNull(prefix, "prefix");
+        Objects.requireNonNull(source, "source");
+        if (!prefix.equals(DefaultStringSubstitutor.prefix(prefix + ":"))) {
+            throw new IllegalArgumentException("Invalid prefix: " + prefix);
+        }
+        if (DefaultStringSubstitutor.isBuiltIn(prefix) || settings.variableSources.containsKey(prefix)) {
+            throw new IllegalArgumentException("Prefix already in use: " + prefix);
+        }
+        enableVariableSubstitutions();
+        settings.variableSources.put(prefix, source);
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableFileLookups(boolean trimTrailingNewlines) {
+        enableVariableSubstitutions();
+        settings.fileLookups = true;
+        settings.trimFileLookups = trimTrailingNewlines;
+        return this;
+    }
+
+    @Override
+    public ConfigStackBundler<C> enableAutoLayer() {
+        settings.autoLayer = true;
         return this;
     }
 
     @Override
     public ConfigStackBundler<C> setArrayStrategy(ArrayStrategy arrayStrategy) {
-        this.arrayStrategy = Objects.requireNonNull(arrayStrategy, "arrayStrategy");
+        settings.arrayStrategy = Objects.requireNonNull(arrayStrategy, "arrayStrategy");
         return this;
     }
 
@@ -109,29 +195,28 @@ final class ConfigStackBundlerImpl<C extends Configuration> implements ConfigSta
 
     @Override
     public ConfigStackBundler<C> setProgressLogger(ProgressLogger progressLogger) {
-        this.progressLogger = Objects.requireNonNull(progressLogger);
+        settings.progressLogger = Objects.requireNonNull(progressLogger);
         return this;
     }
 
     @Override
     public Bundle bundle() {
-        progressLogger.println(() -> "Creating bundle for config " + configurationClass + "\n" +
-                (common.isEmpty() ? "" : "  common: " + String.join(", ", common) + "\n") +
-                ("  fall back to classpath: " + classpathResources + "\n") +
-                ("  variable substitutions: " + variableSubstitutions + "\n"));
-        return new ConfigStackBundle(
-                configurationClass,
-                configurationResourceResolver,
-                common,
-                progressLogger,
-                arrayStrategy,
-                classpathResources,
-                variableSubstitutions,
-                configurationStacker,
-                configurationLoader,
-                configurationBuilder,
-                configurationSubstitutor,
-                substitutor);
+        settings.progressLogger.println(() -> "Creating bundle for config " + configurationClass + "\n" + settings);
+        return new ConfigStackBundle(settings);
+    }
+
+    /**
+     * @param args Command line arguments
+     * @return The argument to the command, i.e. the last argument after the command name that is not an option,
+     * or null if there is none
+     */
+    private static String serverCommandArgument(String[] args) {
+        for (int i = args.length - 1; i > 0; i--) {
+            if (args[i] != null && !args[i].trim().isEmpty() && !args[i].startsWith("-")) {
+                return args[i];
+            }
+        }
+        return null;
     }
 
     private static final ProgressLogger DEFAULT_PROGRESS_LOGGER = supplier -> System.out.println(supplier.get());
@@ -4,57 +4,270 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import static no.scienta.alchemy.dropwizard.configstack.JsonUtils.objectNode;
 
+/**
+ * Parses each {@link LoadedData layer} and {@link JsonCombiner#fold(JsonNode, JsonNode, ArrayStrategy) folds} it
+ * into a single accumulator tree, in place.  The parsed layers are private to the assembler, so they can be
+ * consumed without defensive copies.
+ * <p>
+ * YAML layers may be read through a {@link LayerCache}, as decoding the cached form is much cheaper than parsing
+ * YAML.
+ * <p>
+ * An incremental assembler instead keeps each parsed layer, and the {@link JsonCombiner#combine(JsonNode, JsonNode,
+ * ArrayStrategy) combined} result of each prefix of the stack, between runs.  A later run reuses the results for
+ * the unchanged prefix, parses only changed layers, and combines from the first change onward.  Results share
+ * unchanged subtrees with each other, and with the kept trees, so they must not be modified.
+ * <p>
+ * Given an {@link AutoLayer}, its layer is derived when the fold gets to it, from the result so far and the parsed
+ * layers above.  All layers are therefore parsed before they are folded.
+ */
 final class DefaultConfigurationAssembler implements ConfigurationAssembler {
 
     private final ObjectMapper objectMapper;
 
     private final ArrayStrategy arrayStrategy;
 
+    private final LayerCache layerCache;
+
+    private final JsonFactory yamlFactory;
+
+    private final JsonFactory smileFactory;
+
+    private final JsonFactory cborFactory;
+
+    private final boolean incremental;
+
+    private final AutoLayer autoLayer;
+
+    private volatile List<Layer> layers = Collections.emptyList();
+
     /**
      * @param objectMapper  Object mapper
      * @param arrayStrategy How to combine config arrays, may be null
      */
     DefaultConfigurationAssembler(ObjectMapper objectMapper, ArrayStrategy arrayStrategy) {
+        this(objectMapper, arrayStrategy, null);
+    }
+
+    /**
+     * @param objectMapper  Object mapper
+     * @param arrayStrategy How to combine config arrays, may be null
+     * @param layerCache    Cache for parsed YAML layers, may be null
+     */
+    DefaultConfigurationAssembler(ObjectMapper objectMapper, ArrayStrategy arrayStrategy, LayerCache layerCache) {
+        this(objectMapper, arrayStrategy, layerCache, false, null);
+    }
+
+    /**
+     * @param objectMapper  Object mapper
+     * @param arrayStrategy How to combine config arrays, may be null
+     * @param layerCache    Cache for parsed YAML layers, may be null
+     * @param incremental   Keep parsed layers and partial results between runs, returning results that must
+     *                      not be modified
+     * @param autoLayer     Derives the {@value AutoLayer#NAME} layer, may be null
+     */
+    DefaultConfigurationAssembler(ObjectMapper objectMapper,
+                                  ArrayStrategy arrayStrategy,
+                                  LayerCache layerCache,
+                                  boolean incremental,
+                                  AutoLayer autoLayer) {
         this.objectMapper = Objects.requireNonNull(objectMapper, "objectMapper");
         this.arrayStrategy = Objects.requireNonNull(arrayStrategy, "arrayStrategy");
+        this.layerCache = layerCache;
+        this.yamlFactory = new YAMLFactory(objectMapper);
+        this.smileFactory = new SmileFactory(objectMapper);
+        this.cborFactory = new CBORFactory(objectMapper);
+        this.incremental = incremental;
+        this.autoLayer = autoLayer;
     }
 
     @Override
     public JsonNode assemble(Collection<LoadedData> loadables) {
-        return loadables.stream()
-                .flatMap(this::readJson)
-                .reduce(objectNode(),
-                        (base, override) -> JsonCombiner.combine(base, override, arrayStrategy));
+        return assemble(loadables, null);
     }
 
-    private Stream<JsonNode> readJson(LoadedData loadedData) {
+    /**
+     * @param loadables    Loaded data
+     * @param parsedLayers Told about each parsed layer before it is combined, whether parsed or kept from an
+     *                     earlier run, may be null
+     * @return Assembled config
+     */
+    JsonNode assemble(Collection<LoadedData> loadables, Consumer<JsonNode> parsedLayers) {
+        if (incremental) {
+            return reassemble(loadables, parsedLayers);
+        }
+        List<LoadedData> layers = new ArrayList<>(loadables);
+        List<JsonNode> parsed = new ArrayList<>(layers.size());
+        for (LoadedData loadedData : layers) {
+            parsed.add(readJson(loadedData));
+        }
+        JsonNode assembled = objectNode();
+        for (int i = 0; i < layers.size(); i++) {
+            LoadedData loadedData = layers.get(i);
+            JsonNode layer = isAuto(loadedData)
+                    ? autoLayer.layer(parsed.get(i), assembled, parsed.subList(i + 1, parsed.size()))
+                    : parsed.get(i);
+            if (parsedLayers != null) {
+                parsedLayers.accept(layer);
+            }
+            Object event = PipelineEvents.beginMerge();
+            assembled = JsonCombiner.fold(assembled, layer, arrayStrategy);
+            PipelineEvents.endMerge(event, loadedData, arrayStrategy, false);
+        }
+        return assembled;
+    }
+
+    private JsonNode reassemble(Collection<LoadedData> loadables, Consumer<JsonNode> parsedLayers) {
+        List<Layer> previous = this.layers;
+        List<LoadedData> loaded = new ArrayList<>(loadables);
+        List<HashCode> contentHashes = new ArrayList<>(loaded.size());
+        List<JsonNode> trees = new ArrayList<>(loaded.size());
+        for (LoadedData loadedData : loaded) {
+            HashCode contentHash = loadedData.contentHash();
+            contentHashes.add(contentHash);
+            trees.add(isAuto(loadedData) ? readJson(loadedData) : parsed(previous, loadedData, contentHash));
+        }
+        List<Layer> layers = new ArrayList<>(loaded.size());
+        JsonNode assembled = objectNode();
+        boolean unchanged = true;
+        for (int index = 0; index < loaded.size(); index++) {
+            LoadedData loadedData = loaded.get(index);
+            List<JsonNode> above = trees.subList(index + 1, trees.size());
+            HashCode contentHash = isAuto(loadedData)
+                    ? autoLayerHash(contentHashes.get(index), above)
+                    : contentHashes.get(index);
+            unchanged &= index < previous.size() && previous.get(index).is(loadedData.getPath(), contentHash);
+            if (unchanged) {
+                Layer layer = previous.get(index);
+                layers.add(layer);
+                assembled = layer.assembled;
+                if (parsedLayers != null) {
+                    parsedLayers.accept(layer.parsed);
+                }
+            } else {
+                JsonNode parsed = isAuto(loadedData)
+                        ? autoLayer.layer(trees.get(index), assembled, above)
+                        : trees.get(index);
+                if (parsedLayers != null) {
+                    parsedLayers.accept(parsed);
+                }
+                Object event = PipelineEvents.beginMerge();
+                assembled = JsonCombiner.combine(assembled, parsed, arrayStrategy);
+                PipelineEvents.endMerge(event, loadedData, arrayStrategy, true);
+                layers.add(new Layer(loadedData.getPath(), contentHash, parsed, assembled));
+            }
+        }
+        this.layers = layers;
+        return assembled;
+    }
+
+    private boolean isAuto(LoadedData loadedData) {
+        return autoLayer != null && AutoLayer.PATH.equals(loadedData.getPath());
+    }
+
+    /**
+     * @return Hash of the auto layer's content and the server type above it, as the derived layer depends on both
+     */
+    private static HashCode autoLayerHash(HashCode contentHash, List<JsonNode> above) {
+        HashCode serverType =
+                Hashing.sha256().hashString(String.valueOf(AutoLayer.serverType(above)), StandardCharsets.UTF_8);
+        return Hashing.combineOrdered(Arrays.asList(contentHash, serverType));
+    }
+
+    /**
+     * @return The parsed layer kept from the last run, or else a newly parsed one, or null if there was no content
+     */
+    private JsonNode parsed(List<Layer> previous, LoadedData loadedData, HashCode contentHash) {
+        Optional<Layer> kept = previous.stream()
+                .filter(layer -> layer.is(loadedData.getPath(), contentHash))
+                .findFirst();
+        return kept.isPresent() ? kept.get().parsed : readJson(loadedData); // Empty layers are null
+    }
+
+    /**
+     * @param loadedData Loaded data
+     * @return Parsed tree, or null if there was no content
+     */
+    private JsonNode readJson(LoadedData loadedData) {
+        Object event = PipelineEvents.beginParse();
+        JsonNode parsed = loadedData.hasContent() && layerCache != null && loadedData.isYaml()
+                ? layerCache.read(loadedData, this::parse)
+                : parse(loadedData);
+        PipelineEvents.endParse(event, loadedData, parsed);
+        return parsed;
+    }
+
+    private JsonNode parse(LoadedData loadedData) {
         if (loadedData.hasContent()) {
             try {
-                JsonFactory factory = factory(objectMapper, loadedData);
+                JsonFactory factory = factory(loadedData);
                 JsonParser parser = factory.createParser(loadedData.getStream());
-                JsonNode jsonNode = parser.readValueAsTree();
-                return Stream.of(jsonNode);
+                return parser.readValueAsTree();
             } catch (Exception e) {
                 throw new IllegalStateException(this + " failed to parse " + loadedData, e);
             }
         }
-        return Stream.empty();
+        return null;
+    }
+
+    private JsonFactory factory(LoadedData loadable) {
+        switch (loadable.getSuffix()) {
+            case YAML:
+                return yamlFactory;
+            case SMILE:
+                return smileFactory;
+            case CBOR:
+                return cborFactory;
+            default:
+                return objectMapper.getFactory();
+        }
     }
 
-    private JsonFactory factory(ObjectMapper objectMapper, LoadedData loadable) {
-        return loadable.isYaml() ? new YAMLFactory(objectMapper) : objectMapper.getFactory();
+    /**
+     * A parsed layer, and the combined result of the stack up to and including it.
+     */
+    private static final class Layer {
+
+        private final String path;
+
+        private final HashCode contentHash;
+
+        private final JsonNode parsed;
+
+        private final JsonNode assembled;
+
+        private Layer(String path, HashCode contentHash, JsonNode parsed, JsonNode assembled) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.parsed = parsed;
+            this.assembled = assembled;
+        }
+
+        private boolean is(String path, HashCode contentHash) {
+            return this.path.equals(path) && Objects.equals(this.contentHash, contentHash);
+        }
     }
 
     @Override
     public String toString() {
-        return getClass().getSimpleName() + "[" + "]";
+        return getClass().getSimpleName() + "[" + (incremental ? "incremental " : "") +
+                (layerCache == null ? "" : layerCache) + "]";
     }
 }
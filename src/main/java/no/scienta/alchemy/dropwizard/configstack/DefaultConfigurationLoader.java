@@ -1,15 +1,24 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Loads data with a delegate {@link ConfigurationSourceProvider provider}
+ * Loads data with a delegate {@link ConfigurationSourceProvider provider}.  Given an {@link AutoLayer}, the
+ * {@value AutoLayer#NAME} stack element is {@link AutoLayer#loaded() loaded} from the host instead, and a resource
+ * for the element is an error.
  */
 final class DefaultConfigurationLoader implements ConfigurationLoader {
 
@@ -21,6 +30,12 @@ final class DefaultConfigurationLoader implements ConfigurationLoader {
 
     private final ConfigurationSourceProvider delegateProvider;
 
+    private final int concurrency;
+
+    private final AutoLayer autoLayer;
+
+    private ExecutorService executor;
+
     /**
      * @param configurationResourceResolver How to resolve base config and stacked elements
      * @param commonConfigs                 Common resources to be loaded across apps
@@ -30,22 +45,61 @@ final class DefaultConfigurationLoader implements ConfigurationLoader {
                                ConfigurationResourceResolver configurationResourceResolver,
                                List<String> commonConfigs,
                                ProgressLogger progressLogger) {
+        this(delegateProvider, configurationResourceResolver, commonConfigs, progressLogger, 1);
+    }
+
+    /**
+     * @param configurationResourceResolver How to resolve base config and stacked elements
+     * @param commonConfigs                 Common resources to be loaded across apps
+     * @param progressLogger                How to log progress, may be null
+     * @param concurrency                   Max number of candidate paths to probe at once, 1 for sequential
+     */
+    DefaultConfigurationLoader(ConfigurationSourceProvider delegateProvider,
+                               ConfigurationResourceResolver configurationResourceResolver,
+                               List<String> commonConfigs,
+                               ProgressLogger progressLogger,
+                               int concurrency) {
+        this(delegateProvider, configurationResourceResolver, commonConfigs, progressLogger, concurrency, null);
+    }
+
+    /**
+     * @param configurationResourceResolver How to resolve base config and stacked elements
+     * @param commonConfigs                 Common resources to be loaded across apps
+     * @param progressLogger                How to log progress, may be null
+     * @param concurrency                   Max number of candidate paths to probe at once, 1 for sequential
+     * @param autoLayer                     Loads the {@value AutoLayer#NAME} layer from the host, or null to load
+     *                                      it like any other element
+     */
+    DefaultConfigurationLoader(ConfigurationSourceProvider delegateProvider,
+                               ConfigurationResourceResolver configurationResourceResolver,
+                               List<String> commonConfigs,
+                               ProgressLogger progressLogger,
+                               int concurrency,
+                               AutoLayer autoLayer) {
         this.delegateProvider = Objects.requireNonNull(delegateProvider, "provider");
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+        this.concurrency = concurrency;
 
         this.configurationResourceResolver = Objects.requireNonNull(configurationResourceResolver, "configResolver");
         this.commonConfigs = commonConfigs == null || commonConfigs.isEmpty()
                 ? Collections.emptyList()
                 : ImmutableList.copyOf(commonConfigs);
         this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
+        this.autoLayer = autoLayer;
     }
 
     @Override
     public Collection<LoadedData> load(Collection<String> stack) {
         Collection<String> candidatePaths = candidatePaths(stack);
-        Collection<LoadedData> loadables = candidatePaths.stream()
+        Collection<LoadedData> loadables = concurrency > 1 && candidatePaths.size() > 1
+                ? loadConcurrently(candidatePaths)
+                : candidatePaths.stream()
                 .flatMap(this::loaded)
                 .collect(Collectors.toList());
 
+        failOnAutoResource(stack, loadables);
         failOnEmpty(stack, loadables);
         logProgress(stack, loadables);
 
@@ -71,13 +125,18 @@ final class DefaultConfigurationLoader implements ConfigurationLoader {
         return Stream.of(
                 suffixed(commonConfigs.stream()),
                 suffixed(configurationResourceResolver.baseResource()),
-                stack.stream().flatMap(string ->
-                        Stream.concat(
-                                suffixedCandidates(string),
-                                suffixed(configurationResourceResolver.stackedResource(string))))
+                stack.stream().flatMap(string -> autoLayer != null && AutoLayer.NAME.equals(string)
+                        ? Stream.concat(elementCandidates(string), Stream.of(AutoLayer.PATH))
+                        : elementCandidates(string))
         ).flatMap(Function.identity()).distinct().collect(Collectors.toList());
     }
 
+    private Stream<String> elementCandidates(String element) {
+        return Stream.concat(
+                suffixedCandidates(element),
+                suffixed(configurationResourceResolver.stackedResource(element)));
+    }
+
     private Stream<String> suffixed(Stream<String> stream) {
         return stream == null ? Stream.empty()
                 : stream.flatMap(DefaultConfigurationLoader::suffixedCandidates);
@@ -88,13 +147,84 @@ final class DefaultConfigurationLoader implements ConfigurationLoader {
      * @return Stream of loadable data from path, or empty stream if no data was found
      */
     private Stream<LoadedData> loaded(String candidatePath) {
+        if (autoLayer != null && AutoLayer.PATH.equals(candidatePath)) {
+            return Stream.of(autoLayer.loaded());
+        }
+        Object event = PipelineEvents.beginProbe();
+        LoadedData loaded = null;
+        try {
+            InputStream stream = open(candidatePath);
+            loaded = stream == null ? null : LoadedData.create(candidatePath, stream);
+        } finally {
+            PipelineEvents.endProbe(event, candidatePath, delegateProvider, loaded);
+        }
+        return loaded == null ? Stream.empty() : Stream.of(loaded);
+    }
+
+    /**
+     * @param candidatePath Candidate path
+     * @return Stream from the delegate provider, or null if no data was found
+     */
+    private InputStream open(String candidatePath) {
         try {
-            return Stream.of(delegateProvider.open(candidatePath))
-                    .filter(Objects::nonNull)
-                    .map(LoadedData.forPath(candidatePath));
+            return delegateProvider.open(candidatePath);
         } catch (Exception e) {
-            return Stream.empty();
+            return null;
+        }
+    }
+
+    /**
+     * Probes all candidates on a bounded pool, and collects the results in candidate order.
+     *
+     * @param candidatePaths Candidate paths, in stacking order
+     * @return Loaded data, in stacking order
+     */
+    private Collection<LoadedData> loadConcurrently(Collection<String> candidatePaths) {
+        ExecutorService executor = executor();
+        List<Future<Optional<LoadedData>>> futures = candidatePaths.stream()
+                .map(candidatePath -> executor.submit(() -> loaded(candidatePath).findFirst()))
+                .collect(Collectors.toList());
+        return futures.stream()
+                .map(DefaultConfigurationLoader::result)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The loading threads are started on the first concurrent load, and kept until {@link #close() closed}.
+     */
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(concurrency, LOADER_THREADS);
         }
+        return executor;
+    }
+
+    /**
+     * Stops the loading threads.  A later concurrent load starts them again.
+     */
+    synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * The resources for the {@value AutoLayer#NAME} element were probed along with the others, so this only looks
+     * for them among the loaded data.
+     */
+    private void failOnAutoResource(Collection<String> stack, Collection<LoadedData> loadables) {
+        if (autoLayer == null || !stack.contains(AutoLayer.NAME)) {
+            return;
+        }
+        Set<String> candidatePaths = elementCandidates(AutoLayer.NAME).collect(Collectors.toSet());
+        loadables.stream().map(LoadedData::getPath).filter(candidatePaths::contains).findFirst()
+                .ifPresent(candidatePath -> {
+                    throw new IllegalStateException("The " + AutoLayer.NAME + " stack element is derived, " +
+                            "but there is a resource for it: " + candidatePath);
+                });
     }
 
     private void failOnEmpty(Collection<String> stack, Collection<LoadedData> loadables) {
@@ -113,10 +243,28 @@ final class DefaultConfigurationLoader implements ConfigurationLoader {
                 "\n");
     }
 
+    private static Optional<LoadedData> result(Future<Optional<LoadedData>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new IllegalStateException("Failed to load", e.getCause());
+        }
+    }
+
     private static Stream<String> suffixedCandidates(String name) {
         return Arrays.stream(Suffix.values()).map(suffix -> suffix.suffixed(name)).distinct();
     }
 
+    private static final ThreadFactory LOADER_THREADS = new ThreadFactoryBuilder()
+            .setNameFormat("configstack-loader-%d")
+            .setDaemon(true)
+            .build();
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "[" + this.configurationResourceResolver + " <= " + delegateProvider + "]";
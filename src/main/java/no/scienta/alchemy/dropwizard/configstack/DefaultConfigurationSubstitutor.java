@@ -1,28 +1,124 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 final class DefaultConfigurationSubstitutor implements ConfigurationSubstitutor {
 
     private final StringSubstitutor substitutor;
 
+    private final Map<String, VariableSource> sources;
+
+    private final FileVariableSource files;
+
+    private final Map<String, VariableSource> stringSources;
+
     DefaultConfigurationSubstitutor(StringSubstitutor substitutor) {
+        this(substitutor, null);
+    }
+
+    /**
+     * @param substitutor Custom substitutor, or null for the default
+     * @param sources     Variable sources by prefix, for the default substitutor, may be null
+     */
+    DefaultConfigurationSubstitutor(StringSubstitutor substitutor, Map<String, VariableSource> sources) {
+        this(substitutor, sources, null);
+    }
+
+    /**
+     * @param substitutor Custom substitutor, or null for the default
+     * @param sources     Variable sources by prefix, for the default substitutor, may be null
+     * @param files       Source for {@code file:} lookups by the default substitutor, kept across passes, may be
+     *                    null
+     */
+    DefaultConfigurationSubstitutor(StringSubstitutor substitutor,
+                                    Map<String, VariableSource> sources,
+                                    FileVariableSource files) {
         this.substitutor = substitutor;
+        this.sources = sources == null || sources.isEmpty()
+                ? Collections.emptyMap()
+                : ImmutableMap.copyOf(sources);
+        this.files = files;
+        this.stringSources = files == null ? this.sources : ImmutableMap.<String, VariableSource>builder()
+                .putAll(this.sources)
+                .put(DefaultStringSubstitutor.FILE, files)
+                .build();
     }
 
     @Override
     public JsonNode substitute(JsonNode combined) {
-        return JsonSubstitutor.substitute(combined, stringSubstitutor(combined)::substitute);
+        return substitute(combined, null, null);
+    }
+
+    /**
+     * Substitutes, reporting the variables looked up, for {@link #tracksVariables() the default string
+     * substitutor}.
+     *
+     * @param combined  Configuration
+     * @param variables Told about each system property or env variable looked up, and its value or null
+     * @return Substituted JSON AST
+     */
+    JsonNode substitute(JsonNode combined, BiConsumer<String, String> variables) {
+        return substitute(combined, variables, null);
+    }
+
+    /**
+     * Substitutes, reporting the variables looked up and counting placeholders and lookups, for the default
+     * string substitutor.  Otherwise, nothing is counted.
+     *
+     * @param combined  Configuration
+     * @param variables Told about each system property or env variable looked up, and its value or null, may be
+     *                  null
+     * @param stats     Counts placeholders and lookups, may be null
+     * @return Substituted JSON AST
+     * @throws IllegalStateException If variables are to be reported, but cannot be tracked
+     */
+    JsonNode substitute(JsonNode combined, BiConsumer<String, String> variables, SubstitutionStats stats) {
+        if (variables != null && !tracksVariables()) {
+            throw new IllegalStateException(this + " does not track variables");
+        }
+        Object event = PipelineEvents.beginSubstitution();
+        if (substitutor != null) {
+            JsonNode substituted = JsonSubstitutor.substitute(combined, substitutor::substitute);
+            PipelineEvents.endSubstitution(event, null);
+            return substituted;
+        }
+        SubstitutionStats counted = stats == null ? new SubstitutionStats() : stats;
+        JsonNode substituted = JsonSubstitutor.substitute(combined, new DefaultStringSubstitutor(
+                System.getProperties(), System.getenv(), combined, variables, counted, stringSources, null));
+        PipelineEvents.endSubstitution(event, counted);
+        return substituted;
+    }
+
+    /**
+     * @return True if substitutions depend on system properties and env variables only, and can be tracked
+     */
+    boolean tracksVariables() {
+        return substitutor == null && sources.isEmpty();
     }
 
-    private StringSubstitutor stringSubstitutor(JsonNode combined) {
-        return this.substitutor == null
-                ? new DefaultStringSubstitutor(System.getProperties(), System.getenv(), combined)
-                : this.substitutor;
+    /**
+     * @param name Name of system property or env variable, or a {@code file:} or {@code host:} key
+     * @return Its current value, or null
+     */
+    String variable(String name) {
+        String prefix = DefaultStringSubstitutor.prefix(name);
+        if (DefaultStringSubstitutor.FILE.equals(prefix)) {
+            return files == null ? null : files.resolve(name.substring(DefaultStringSubstitutor.FILE.length() + 1));
+        }
+        if (DefaultStringSubstitutor.HOST.equals(prefix)) {
+            return DefaultStringSubstitutor.computed(
+                    name.substring(DefaultStringSubstitutor.HOST.length() + 1), HostResources::detect);
+        }
+        return DefaultStringSubstitutor.variable(System.getProperties(), System.getenv(), name);
     }
 
     @Override
     public String toString() {
-        return getClass().getSimpleName() + "[" + substitutor + "]";
+        return getClass().getSimpleName() + "[" + substitutor + (sources.isEmpty() ? "" : " " + sources.keySet()) + "]";
     }
 }
@@ -1,43 +1,177 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
 import com.fasterxml.jackson.core.JsonPointer;
-import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.JsonNode;
-import org.apache.commons.text.StrLookup;
-import org.apache.commons.text.StrSubstitutor;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
-import static org.apache.commons.text.StrMatcher.stringMatcher;
-
+/**
+ * Looks up {@code ${key}} placeholders in system properties, then env variables, then as JSON pointers into the
+ * config.  Values are compiled to {@link SubstitutionTemplate templates} once, and each key is resolved once, so
+ * an instance is meant for a single substitution pass over a config.  Not thread-safe.
+ * <p>
+ * Keys prefixed with {@value #SYSTEM_PROPERTY}, {@value #ENV} or {@value #POINTER} and a colon are looked up in
+ * that source only, and keys prefixed with the prefix of a {@link VariableSource} go to the source.  The keys
+ * each source is to answer in the config are resolved in one batch, before the first substitution.  Keys
+ * prefixed with {@value #FILE} go to the {@link FileVariableSource} among the sources, if any, and are reported
+ * as variables.
+ * <p>
+ * Keys prefixed with {@value #HOST} are {@link Expression expressions} over the {@link HostResources host
+ * resources}, like {@code ${host:cpus * 4 | max 256}}, and are reported as variables.
+ * <p>
+ * Before the first substitution, the {@link ReferenceGraph references} between values in the config are
+ * resolved, dependencies first.  Chains of references thus resolve without deep recursion, and cycles are
+ * reported before anything is substituted.
+ */
 final class DefaultStringSubstitutor implements StringSubstitutor, Function<String, String> {
 
+    static final String SYSTEM_PROPERTY = "sys";
+
+    static final String ENV = "env";
+
+    static final String POINTER = "ptr";
+
+    static final String FILE = "file";
+
+    static final String HOST = "host";
+
     private final Properties properties;
 
     private final Map<String, String> env;
 
     private final JsonNode node;
 
+    private final BiConsumer<String, String> variables;
+
+    private final SubstitutionStats stats;
+
+    private final Map<String, VariableSource> sources;
+
+    private HostResources host;
+
+    private final Map<String, Optional<String>> resolved = new HashMap<>();
+
+    private final Map<String, Optional<String>> sourced = new HashMap<>();
+
+    private final Map<String, SubstitutionTemplate> templates = new HashMap<>();
+
+    private final Set<String> resolving = new LinkedHashSet<>();
+
+    private boolean referencesResolved;
+
     DefaultStringSubstitutor(Properties properties, Map<String, String> env, JsonNode node) {
+        this(properties, env, node, null, null, null, null);
+    }
+
+    /**
+     * @param variables Told about each system property or env variable looked up, and its value or null, may be null
+     * @param stats     Counts placeholders and lookups, may be null
+     * @param sources   Variable sources by prefix, may be null
+     * @param host      Host resources for expressions, or null to detect them when needed
+     */
+    DefaultStringSubstitutor(
+            Properties properties,
+            Map<String, String> env,
+            JsonNode node,
+            BiConsumer<String, String> variables,
+            SubstitutionStats stats,
+            Map<String, VariableSource> sources,
+            HostResources host
+    ) {
         this.properties = properties;
         this.env = env;
         this.node = node;
+        this.variables = variables;
+        this.stats = stats == null ? new SubstitutionStats() : stats;
+        this.sources = sources == null ? Collections.emptyMap() : sources;
+        this.host = host;
+    }
+
+    /**
+     * @param key Key, optionally prefixed with {@value #SYSTEM_PROPERTY} or {@value #ENV} to look in one place only
+     * @return The value of a system property or, failing that, an env variable, or null
+     */
+    static String variable(Properties properties, Map<String, String> env, String key) {
+        String prefix = prefix(key);
+        if (SYSTEM_PROPERTY.equals(prefix)) {
+            return properties == null ? null : properties.getProperty(unprefixed(key));
+        }
+        if (ENV.equals(prefix)) {
+            return env == null ? null : env.get(unprefixed(key));
+        }
+        String property = properties == null ? null : properties.getProperty(key);
+        if (property != null) {
+            return property;
+        }
+        return env == null ? null : env.get(key);
+    }
+
+    /**
+     * @param expression {@link Expression Expression}, without the {@value #HOST} prefix
+     * @param host       Supplies host resources
+     * @return The value of the expression
+     * @throws IllegalArgumentException If it is not an expression
+     * @throws IllegalStateException    If the expression could not be evaluated
+     */
+    static String computed(String expression, Supplier<HostResources> host) {
+        Expression compiled = Expression.compile(expression);
+        try {
+            return String.valueOf(compiled.evaluate(host.get()));
+        } catch (ArithmeticException e) {
+            throw new IllegalStateException("Failed to compute ${" + HOST + ":" + expression + "}: " +
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param prefix Prefix
+     * @return True iff the prefix is for a built-in source
+     */
+    static boolean isBuiltIn(String prefix) {
+        return SYSTEM_PROPERTY.equals(prefix) || ENV.equals(prefix) || POINTER.equals(prefix) || FILE.equals(prefix) ||
+                HOST.equals(prefix);
+    }
+
+    /**
+     * @param key Key
+     * @return The key's prefix, i.e. a name before a colon, or null if it has none
+     */
+    static String prefix(String key) {
+        int colon = key.indexOf(':');
+        if (colon < 1 || !Character.isLetter(key.charAt(0))) {
+            return null;
+        }
+        for (int i = 1; i < colon; i++) {
+            char c = key.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                return null;
+            }
+        }
+        return key.substring(0, colon);
     }
 
     @Override
     public String apply(String value) {
-        StrSubstitutor strSubstitutor =
-                new StrSubstitutor(new Lookup(node), stringMatcher("${"), stringMatcher("}"), '\'');
-        String workString = value;
-        while (true) {
-            String replaced = strSubstitutor.replace(workString);
-            if (replaced.equals(workString)) {
-                return workString;
-            }
-            workString = replaced;
+        if (!SubstitutionTemplate.hasPlaceholders(value)) {
+            return value;
         }
+        if (!referencesResolved) {
+            referencesResolved = true;
+            resolveReferences();
+        }
+        SubstitutionTemplate template = template(value);
+        stats.placeholders(template.placeholders());
+        return template.render(this::resolve);
     }
 
     @Override
@@ -45,61 +179,185 @@ final class DefaultStringSubstitutor implements StringSubstitutor, Function<Stri
         return apply(value);
     }
 
-    private final class Lookup extends StrLookup<String> {
+    private void resolveReferences() {
+        if (node != null) {
+            ReferenceGraph graph = ReferenceGraph.build(node, this::template, this::pointer);
+            prefetch();
+            graph.resolutionOrder().forEach(this::resolve);
+        }
+    }
 
-        private static final String OR = "||";
+    /**
+     * Resolves the keys for each variable source in the templates compiled so far, i.e. the whole config.
+     */
+    private void prefetch() {
+        if (sources.isEmpty()) {
+            return;
+        }
+        Map<String, Set<String>> keys = new HashMap<>();
+        for (SubstitutionTemplate template : templates.values()) {
+            for (String key : template.references()) {
+                String prefix = prefix(key);
+                if (prefix != null && sources.containsKey(prefix) && !sourced.containsKey(key)) {
+                    keys.computeIfAbsent(prefix, p -> new LinkedHashSet<>()).add(unprefixed(key));
+                }
+            }
+        }
+        keys.forEach((prefix, names) -> {
+            Map<String, String> values = resolveAll(prefix, names);
+            for (String name : names) {
+                sourced.put(prefix + ':' + name, Optional.ofNullable(values.get(name)));
+            }
+        });
+    }
 
-        private final JsonNode node;
+    /**
+     * @param key Key
+     * @return The JSON pointer the key references in the config, or null if it is resolved elsewhere
+     */
+    private String pointer(String key) {
+        if (POINTER.equals(prefix(key))) {
+            return unprefixed(key);
+        }
+        return isPointer(key) && lookupExternal(key) == null ? key : null;
+    }
 
-        private Lookup(JsonNode node) {
-            this.node = node;
+    private SubstitutionTemplate template(String value) {
+        SubstitutionTemplate template = templates.get(value);
+        if (template == null) {
+            template = SubstitutionTemplate.compile(value);
+            templates.put(value, template);
         }
+        return template;
+    }
 
-        @Override
-        public String lookup(String key) {
-            String lookupKey;
-            String defaultValue;
-            if (key.contains(OR)) {
-                int endIndex = key.lastIndexOf(OR);
-                lookupKey = key.substring(0, endIndex);
-                defaultValue = key.substring(endIndex + OR.length());
-            } else {
-                lookupKey = key;
-                defaultValue = null;
+    private String resolve(String key) {
+        Optional<String> hit = resolved.get(key);
+        if (hit != null) {
+            return hit.orElse(null);
+        }
+        if (!resolving.add(key)) {
+            throw new IllegalStateException
+                    ("Infinite loop in property interpolation: " + String.join("->", resolving) + "->" + key);
+        }
+        try {
+            String value = lookup(key);
+            String substituted = value == null ? null : template(value).render(this::resolve);
+            resolved.put(key, Optional.ofNullable(substituted));
+            return substituted;
+        } finally {
+            resolving.remove(key);
+        }
+    }
+
+    private String lookup(String key) {
+        String prefix = prefix(key);
+        if (prefix != null) {
+            if (POINTER.equals(prefix)) {
+                return pointed(unprefixed(key));
+            }
+            if (SYSTEM_PROPERTY.equals(prefix) || ENV.equals(prefix)) {
+                String external = lookupExternal(key);
+                stats.lookup(external == null ? SubstitutionStats.Source.UNRESOLVED
+                        : SYSTEM_PROPERTY.equals(prefix) ? SubstitutionStats.Source.SYSTEM_PROPERTY
+                        : SubstitutionStats.Source.ENV);
+                return external;
+            }
+            if (HOST.equals(prefix)) {
+                String computed = computed(unprefixed(key), this::host);
+                if (variables != null) {
+                    variables.accept(key, computed);
+                }
+                stats.lookup(SubstitutionStats.Source.EXPRESSION);
+                return computed;
+            }
+            if (FILE.equals(prefix) && sources.containsKey(prefix)) {
+                String value = sourced(prefix, key);
+                if (variables != null) {
+                    variables.accept(key, value);
+                }
+                stats.lookup(value == null ? SubstitutionStats.Source.UNRESOLVED : SubstitutionStats.Source.FILE);
+                return value;
             }
-            String resolved = resolve(lookupKey);
-            if (resolved == null && defaultValue == null) {
-                throw new IllegalArgumentException
-                        ("Unknown variable ref '" + key + "': Unknown system property, env variable or JSON node, no default was specified");
+            if (sources.containsKey(prefix)) {
+                String value = sourced(prefix, key);
+                stats.lookup(value == null ? SubstitutionStats.Source.UNRESOLVED
+                        : SubstitutionStats.Source.VARIABLE_SOURCE);
+                return value;
             }
-            return resolved == null ? defaultValue : resolved;
         }
+        String external = lookupExternal(key);
+        if (external != null) {
+            stats.lookup(properties != null && properties.getProperty(key) != null
+                    ? SubstitutionStats.Source.SYSTEM_PROPERTY
+                    : SubstitutionStats.Source.ENV);
+            return external;
+        }
+        return pointed(isPointer(key) ? key : null);
+    }
 
-        private String resolve(String lookupKey) {
-            return properties != null && properties.getProperty(lookupKey) != null ? properties.getProperty(lookupKey)
-                    : env != null && env.containsKey(lookupKey) ? env.get(lookupKey)
-                    : resolveJsonPointer(asPointer(lookupKey));
+    private HostResources host() {
+        if (host == null) {
+            host = HostResources.detect();
         }
+        return host;
+    }
 
-        private String resolveJsonPointer(JsonPointer pointer) {
-            if (pointer == null) {
-                return null;
-            }
-            TreeNode pointed = ((TreeNode) node).at(pointer);
-            return pointed == null || pointed.isMissingNode() || !pointed.isValueNode()
-                    ? null
-                    : ((JsonNode) pointed).asText();
+    /**
+     * @param pointer JSON pointer, or null
+     * @return The value pointed to, or null
+     */
+    private String pointed(String pointer) {
+        String pointed = pointer == null ? null : resolveJsonPointer(pointer);
+        stats.lookup(pointed == null ? SubstitutionStats.Source.UNRESOLVED : SubstitutionStats.Source.JSON_POINTER);
+        return pointed;
+    }
+
+    private String sourced(String prefix, String key) {
+        Optional<String> value = sourced.get(key);
+        if (value == null) {
+            value = Optional.ofNullable(
+                    resolveAll(prefix, Collections.singleton(unprefixed(key))).get(unprefixed(key)));
+            sourced.put(key, value);
         }
+        return value.orElse(null);
+    }
 
-        private JsonPointer asPointer(String key) {
-            if (key == null) {
-                return null;
-            }
-            try {
-                return JsonPointer.compile(key);
-            } catch (IllegalArgumentException e) {
-                return null;
-            }
+    private Map<String, String> resolveAll(String prefix, Collection<String> names) {
+        try {
+            Map<String, String> values = sources.get(prefix).resolveAll(names);
+            return values == null ? Collections.emptyMap() : values;
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Variable source " + prefix + " failed to resolve " + names, e);
+        }
+    }
+
+    private String lookupExternal(String key) {
+        String value = variable(properties, env, key);
+        if (variables != null) {
+            variables.accept(key, value);
+        }
+        return value;
+    }
+
+    private String resolveJsonPointer(String key) {
+        JsonPointer pointer;
+        try {
+            pointer = JsonPointer.compile(key);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
+        JsonNode pointed = node == null ? null : node.at(pointer);
+        return pointed == null || pointed.isMissingNode() || !pointed.isValueNode()
+                ? null
+                : pointed.asText();
+    }
+
+    private static String unprefixed(String key) {
+        return key.substring(key.indexOf(':') + 1);
+    }
+
+    private static boolean isPointer(String key) {
+        return key.startsWith("/");
     }
 }
@@ -11,6 +11,10 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.stream.Collectors;
 
+/**
+ * Binds the tree {@link StackingConfigurationSourceProvider#tree(String) assembled} by the provider directly,
+ * instead of parsing its serialized form.  Other providers are read as usual.
+ */
 class EmptyInputOKYamlConfigurationFactory<T>
         extends YamlConfigurationFactory<T> {
 
@@ -33,6 +37,13 @@ class EmptyInputOKYamlConfigurationFactory<T>
                 configurationResourceResolver.baseResource().collect(Collectors.toList());
         return base.isEmpty()
                 ? super.build()
-                : super.build(provider, base.iterator().next());
+                : build(provider, base.iterator().next());
+    }
+
+    @Override
+    public T build(ConfigurationSourceProvider provider, String path) throws IOException, ConfigurationException {
+        return provider instanceof StackingConfigurationSourceProvider
+                ? build(((StackingConfigurationSourceProvider) provider).tree(path), path)
+                : super.build(provider, path);
     }
 }
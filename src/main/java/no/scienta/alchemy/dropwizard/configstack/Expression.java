@@ -0,0 +1,191 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.util.Objects;
+
+/**
+ * An integer expression over {@link HostResources host resources}, for placeholders like
+ * {@code ${host:cpus * 4 | max 256}}.  Supports integer literals, the resource names, {@code + - * / %}, unary
+ * minus and parentheses, with the usual precedence.  A {@code | min n} or {@code | max n} clamp bounds everything
+ * before it from below or above, e.g. {@code ${host:heapMb / 4 | min 16 | max 512}}.  Division truncates.
+ * <p>
+ * Expressions are compiled to a tree once, and can then be {@link #evaluate(HostResources) evaluated} for any
+ * host.  Immutable.
+ */
+final class Expression {
+
+    private final String source;
+
+    private final Node root;
+
+    private Expression(String source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * @param source Expression
+     * @return Compiled expression
+     * @throws IllegalArgumentException If the source is not an expression
+     */
+    static Expression compile(String source) {
+        Parser parser = new Parser(Objects.requireNonNull(source, "source"));
+        Node root = parser.clamped();
+        parser.skipSpace();
+        if (parser.pos < source.length()) {
+            throw parser.error("Unexpected input");
+        }
+        return new Expression(source, root);
+    }
+
+    /**
+     * @param host Host resources
+     * @return Value
+     * @throws ArithmeticException If dividing by zero, or overflowing
+     */
+    long evaluate(HostResources host) {
+        return root.evaluate(Objects.requireNonNull(host, "host"));
+    }
+
+    @FunctionalInterface
+    private interface Node {
+
+        long evaluate(HostResources host);
+    }
+
+    private static final class Parser {
+
+        private final String source;
+
+        private int pos;
+
+        private Parser(String source) {
+            this.source = source;
+        }
+
+        private Node clamped() {
+            Node node = sum();
+            while (accept('|')) {
+                String bound = identifier();
+                Node limit = sum();
+                Node clamped = node;
+                if ("min".equals(bound)) {
+                    node = host -> Math.max(clamped.evaluate(host), limit.evaluate(host));
+                } else if ("max".equals(bound)) {
+                    node = host -> Math.min(clamped.evaluate(host), limit.evaluate(host));
+                } else {
+                    throw error("Expected min or max, got " + bound);
+                }
+            }
+            return node;
+        }
+
+        private Node sum() {
+            Node node = product();
+            while (true) {
+                Node left = node;
+                if (accept('+')) {
+                    Node right = product();
+                    node = host -> Math.addExact(left.evaluate(host), right.evaluate(host));
+                } else if (accept('-')) {
+                    Node right = product();
+                    node = host -> Math.subtractExact(left.evaluate(host), right.evaluate(host));
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node product() {
+            Node node = unary();
+            while (true) {
+                Node left = node;
+                if (accept('*')) {
+                    Node right = unary();
+                    node = host -> Math.multiplyExact(left.evaluate(host), right.evaluate(host));
+                } else if (accept('/')) {
+                    Node right = unary();
+                    node = host -> left.evaluate(host) / right.evaluate(host);
+                } else if (accept('%')) {
+                    Node right = unary();
+                    node = host -> left.evaluate(host) % right.evaluate(host);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node unary() {
+            if (accept('-')) {
+                Node operand = unary();
+                return host -> Math.negateExact(operand.evaluate(host));
+            }
+            if (accept('(')) {
+                Node node = clamped();
+                if (!accept(')')) {
+                    throw error("Expected )");
+                }
+                return node;
+            }
+            skipSpace();
+            if (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                return constant();
+            }
+            String name = identifier();
+            if (!HostResources.NAMES.contains(name)) {
+                throw error("Unknown resource " + name);
+            }
+            return host -> host.get(name).orElseThrow(() ->
+                    new IllegalStateException("Unknown resource " + name));
+        }
+
+        private Node constant() {
+            int start = pos;
+            while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                pos++;
+            }
+            long value;
+            try {
+                value = Long.parseLong(source.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+            return host -> value;
+        }
+
+        private String identifier() {
+            skipSpace();
+            int start = pos;
+            while (pos < source.length() && Character.isLetter(source.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Expected a name");
+            }
+            return source.substring(start, pos);
+        }
+
+        private boolean accept(char c) {
+            skipSpace();
+            if (pos < source.length() && source.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpace() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + pos + ": " + source);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + source + "]";
+    }
+}
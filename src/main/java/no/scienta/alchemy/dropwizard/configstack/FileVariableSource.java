@@ -0,0 +1,129 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves {@code ${file:/path}} placeholders to the contents of files, e.g. mounted secrets or certificates, as
+ * UTF-8.  Contents are cached by path, and re-read when the file's modification time or size changes, so
+ * unchanged files are not read again on reloads.  Files larger than a threshold are memory-mapped rather than
+ * read into an intermediate buffer.  Missing files resolve to null, so defaults apply.  Thread-safe.
+ */
+final class FileVariableSource implements VariableSource {
+
+    static final int DEFAULT_MAP_THRESHOLD = 64 * 1024;
+
+    private final boolean trimTrailingNewlines;
+
+    private final int mapThreshold;
+
+    private final ConcurrentMap<Path, Contents> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param trimTrailingNewlines Remove newlines at the end of the contents
+     */
+    FileVariableSource(boolean trimTrailingNewlines) {
+        this(trimTrailingNewlines, DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * @param trimTrailingNewlines Remove newlines at the end of the contents
+     * @param mapThreshold         Files larger than this many bytes are memory-mapped
+     */
+    FileVariableSource(boolean trimTrailingNewlines, int mapThreshold) {
+        if (mapThreshold < 0) {
+            throw new IllegalArgumentException("Invalid map threshold: " + mapThreshold);
+        }
+        this.trimTrailingNewlines = trimTrailingNewlines;
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * @param key Path of the file
+     * @return Contents, or null if there is no such file
+     * @throws IllegalStateException If the file exists, but could not be read
+     */
+    @Override
+    public String resolve(String key) {
+        Path path = Paths.get(key);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            cache.remove(path);
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException(this + " failed to read attributes of " + path, e);
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        Contents cached = cache.get(path);
+        if (cached != null && cached.is(modified, attributes.size())) {
+            return cached.value;
+        }
+        Contents contents = new Contents(modified, attributes.size(), read(path, attributes.size()));
+        cache.put(path, contents);
+        return contents.value;
+    }
+
+    private String read(Path path, long size) {
+        try {
+            String contents;
+            if (size > mapThreshold) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    contents = StandardCharsets.UTF_8.decode(
+                            channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size())).toString();
+                }
+            } else {
+                contents = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            }
+            return trimTrailingNewlines ? trimmed(contents) : contents;
+        } catch (IOException e) {
+            throw new IllegalStateException(this + " failed to read " + path, e);
+        }
+    }
+
+    private static String trimmed(String contents) {
+        int end = contents.length();
+        while (end > 0 && (contents.charAt(end - 1) == '\n' || contents.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return contents.substring(0, end);
+    }
+
+    private static final class Contents {
+
+        private final long modified;
+
+        private final long size;
+
+        private final String value;
+
+        private Contents(long modified, long size, String value) {
+            this.modified = modified;
+            this.size = size;
+            this.value = value;
+        }
+
+        private boolean is(long modified, long size) {
+            return this.modified == modified && this.size == size;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + (trimTrailingNewlines ? "trimmed " : "") +
+                cache.size() + " cached, map above " + mapThreshold + "]";
+    }
+}
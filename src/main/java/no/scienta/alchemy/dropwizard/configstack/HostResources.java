@@ -0,0 +1,204 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The resources available to the process: effective CPUs and memory, taking cgroup v1 and v2 quotas and limits
+ * into account on Linux, max heap and max file descriptors.  Cgroup files are read from the cgroup mount as the
+ * process sees it, as in a container.  Where a limit cannot be found, the JVM's view is used.
+ */
+final class HostResources {
+
+    static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+
+    static final Set<String> NAMES = Collections.unmodifiableSet(new LinkedHashSet<>(
+            Arrays.asList("cpus", "heap", "heapMb", "memory", "memoryMb", "fds")));
+
+    private static final long MB = 1024L * 1024L;
+
+    private final int cpus;
+
+    private final long maxHeap;
+
+    private final long memory;
+
+    private final long maxFileDescriptors;
+
+    HostResources(int cpus, long maxHeap, long memory, long maxFileDescriptors) {
+        if (cpus < 1) {
+            throw new IllegalArgumentException("Invalid cpus: " + cpus);
+        }
+        this.cpus = cpus;
+        this.maxHeap = maxHeap;
+        this.memory = memory;
+        this.maxFileDescriptors = maxFileDescriptors;
+    }
+
+    /**
+     * @return Resources of this process
+     */
+    @SuppressWarnings("deprecation") // getTotalMemorySize replaces getTotalPhysicalMemorySize from Java 14, not 8
+    static HostResources detect() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return detect(
+                CGROUP_ROOT,
+                Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().maxMemory(),
+                os instanceof com.sun.management.OperatingSystemMXBean
+                        ? ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize()
+                        : Runtime.getRuntime().maxMemory(),
+                os instanceof com.sun.management.UnixOperatingSystemMXBean
+                        ? ((com.sun.management.UnixOperatingSystemMXBean) os).getMaxFileDescriptorCount()
+                        : -1L);
+    }
+
+    /**
+     * @param cgroupRoot         Cgroup mount
+     * @param processors         Processors seen by the JVM
+     * @param maxHeap            Max heap
+     * @param physicalMemory     Memory seen by the JVM
+     * @param maxFileDescriptors Max file descriptors, or -1 if unknown
+     * @return Resources, limited by the cgroup's quotas and limits
+     */
+    static HostResources detect(
+            Path cgroupRoot,
+            int processors,
+            long maxHeap,
+            long physicalMemory,
+            long maxFileDescriptors
+    ) {
+        int cpus = cpuQuota(cgroupRoot)
+                .map(quota -> (int) Math.max(1L, Math.min(processors, (long) Math.ceil(quota))))
+                .orElse(Math.max(1, processors));
+        long memory = memoryLimit(cgroupRoot)
+                .map(limit -> Math.min(limit, physicalMemory))
+                .orElse(physicalMemory);
+        return new HostResources(cpus, maxHeap, memory, maxFileDescriptors);
+    }
+
+    /**
+     * @return Effective number of CPUs, at least 1
+     */
+    int cpus() {
+        return cpus;
+    }
+
+    /**
+     * @return Max heap in bytes
+     */
+    long maxHeap() {
+        return maxHeap;
+    }
+
+    /**
+     * @return Memory available to the process in bytes, i.e. the container limit if any
+     */
+    long memory() {
+        return memory;
+    }
+
+    /**
+     * @return Max file descriptors, or -1 if unknown
+     */
+    long maxFileDescriptors() {
+        return maxFileDescriptors;
+    }
+
+    /**
+     * @param name One of the {@link #NAMES}: {@code cpus}, {@code heap}, {@code heapMb}, {@code memory},
+     *             {@code memoryMb} or {@code fds}
+     * @return The resource, or empty if the name is unknown
+     */
+    Optional<Long> get(String name) {
+        switch (name) {
+            case "cpus":
+                return Optional.of((long) cpus);
+            case "heap":
+                return Optional.of(maxHeap);
+            case "heapMb":
+                return Optional.of(maxHeap / MB);
+            case "memory":
+                return Optional.of(memory);
+            case "memoryMb":
+                return Optional.of(memory / MB);
+            case "fds":
+                return Optional.of(maxFileDescriptors);
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /**
+     * @return CPU quota as a number of CPUs, from {@code cpu.max} (v2) or {@code cpu.cfs_quota_us} (v1)
+     */
+    private static Optional<Double> cpuQuota(Path root) {
+        Optional<String> v2 = read(root.resolve("cpu.max"));
+        if (v2.isPresent()) {
+            String[] quotaAndPeriod = v2.get().split("\\s+");
+            return quotaAndPeriod.length == 2 && !quotaAndPeriod[0].equals("max")
+                    ? ratio(quotaAndPeriod[0], quotaAndPeriod[1])
+                    : Optional.empty();
+        }
+        for (String controller : new String[]{"cpu", "cpu,cpuacct"}) {
+            Optional<String> quota = read(root.resolve(controller).resolve("cpu.cfs_quota_us"));
+            Optional<String> period = read(root.resolve(controller).resolve("cpu.cfs_period_us"));
+            if (quota.isPresent() && period.isPresent()) {
+                return quota.get().startsWith("-") ? Optional.empty() : ratio(quota.get(), period.get());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return Memory limit, from {@code memory.max} (v2) or {@code memory.limit_in_bytes} (v1)
+     */
+    private static Optional<Long> memoryLimit(Path root) {
+        Optional<String> limit = read(root.resolve("memory.max"));
+        if (!limit.isPresent()) {
+            limit = read(root.resolve("memory").resolve("memory.limit_in_bytes"));
+        }
+        return limit.filter(value -> !value.equals("max")).flatMap(HostResources::parse);
+    }
+
+    private static Optional<Double> ratio(String quota, String period) {
+        return parse(quota).flatMap(q -> parse(period)
+                .filter(p -> p > 0L)
+                .map(p -> (double) q / p));
+    }
+
+    private static Optional<Long> parse(String value) {
+        try {
+            return Optional.of(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<String> read(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[cpus=" + cpus + " heap=" + maxHeap / MB + "MB memory=" +
+                memory / MB + "MB fds=" + maxFileDescriptors + "]";
+    }
+}
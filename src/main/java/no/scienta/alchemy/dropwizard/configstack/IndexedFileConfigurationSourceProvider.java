@@ -0,0 +1,59 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * File-based {@link ConfigurationSourceProvider} which lists each directory once, and only opens files that
+ * were found in the listing.  Missing files are a set lookup, and yield null instead of an exception.
+ * <p>
+ * The listing is a snapshot: files created after a directory was first listed are not seen by this instance,
+ * until the directory is {@link #invalidate(Path) invalidated}.
+ */
+final class IndexedFileConfigurationSourceProvider implements ConfigurationSourceProvider {
+
+    private final Map<Path, Set<String>> index = new ConcurrentHashMap<>();
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        File file = new File(path);
+        return exists(file) ? new FileInputStream(file) : null;
+    }
+
+    /**
+     * Forgets the listing of a directory, so it is listed again on the next lookup.
+     *
+     * @param directory Directory
+     */
+    void invalidate(Path directory) {
+        index.remove(directory.toAbsolutePath().normalize());
+    }
+
+    private boolean exists(File file) {
+        Path directory = file.toPath().toAbsolutePath().normalize().getParent();
+        return directory != null && index.computeIfAbsent(directory, this::list).contains(file.getName());
+    }
+
+    private Set<String> list(Path directory) {
+        String[] names = directory.toFile().list();
+        return names == null || names.length == 0
+                ? Collections.emptySet()
+                : new HashSet<>(Arrays.asList(names));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + index.size() + " directories]";
+    }
+}
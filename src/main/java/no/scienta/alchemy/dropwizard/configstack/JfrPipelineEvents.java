@@ -0,0 +1,229 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Collection;
+
+/**
+ * The JFR event types, only to be used through {@link PipelineEvents}.  Events are in the {@value #CATEGORY}
+ * category, named with the {@value #PREFIX} prefix.
+ */
+final class JfrPipelineEvents {
+
+    static final String CATEGORY = "Configstack";
+
+    static final String PREFIX = "no.scienta.alchemy.configstack.";
+
+    /**
+     * One instance per type, to check whether the type is enabled without allocating an event.
+     */
+    private static final Event ASSEMBLY_TYPE = new Assembly();
+
+    private static final Event PROBE_TYPE = new Probe();
+
+    private static final Event PARSE_TYPE = new Parse();
+
+    private static final Event MERGE_TYPE = new Merge();
+
+    private static final Event SUBSTITUTION_TYPE = new Substitution();
+
+    static Object beginAssembly() {
+        return ASSEMBLY_TYPE.isEnabled() ? begin(new Assembly()) : null;
+    }
+
+    static void endAssembly(Object event, String serverCommand, Collection<LoadedData> loaded, JsonNode config) {
+        Assembly assembly = (Assembly) event;
+        assembly.serverCommand = serverCommand;
+        if (loaded != null) {
+            assembly.layers = loaded.size();
+            assembly.bytes = loaded.stream().mapToLong(LoadedData::size).sum();
+        }
+        assembly.nodes = config == null ? 0L : JsonUtils.count(config);
+        assembly.commit();
+    }
+
+    static Object beginProbe() {
+        return PROBE_TYPE.isEnabled() ? begin(new Probe()) : null;
+    }
+
+    static void endProbe(Object event, String path, ConfigurationSourceProvider provider, LoadedData loaded) {
+        Probe probe = (Probe) event;
+        probe.path = path;
+        probe.provider = provider.getClass().getName();
+        probe.hit = loaded != null;
+        probe.bytes = loaded == null ? 0L : loaded.size();
+        probe.commit();
+    }
+
+    static Object beginParse() {
+        return PARSE_TYPE.isEnabled() ? begin(new Parse()) : null;
+    }
+
+    static void endParse(Object event, LoadedData loaded, JsonNode parsed) {
+        Parse parse = (Parse) event;
+        parse.path = loaded.getPath();
+        parse.format = loaded.getSuffix().name();
+        parse.bytes = loaded.size();
+        parse.nodes = parsed == null ? 0L : JsonUtils.count(parsed);
+        parse.commit();
+    }
+
+    static Object beginMerge() {
+        return MERGE_TYPE.isEnabled() ? begin(new Merge()) : null;
+    }
+
+    static void endMerge(Object event, LoadedData loaded, ArrayStrategy arrayStrategy, boolean incremental) {
+        Merge merge = (Merge) event;
+        merge.path = loaded.getPath();
+        merge.arrayStrategy = arrayStrategy.name();
+        merge.incremental = incremental;
+        merge.commit();
+    }
+
+    static Object beginSubstitution() {
+        return SUBSTITUTION_TYPE.isEnabled() ? begin(new Substitution()) : null;
+    }
+
+    static void endSubstitution(Object event, SubstitutionStats stats) {
+        Substitution substitution = (Substitution) event;
+        if (stats != null) {
+            substitution.placeholders = stats.getPlaceholders();
+            substitution.systemProperties = stats.getLookups(SubstitutionStats.Source.SYSTEM_PROPERTY);
+            substitution.env = stats.getLookups(SubstitutionStats.Source.ENV);
+            substitution.jsonPointers = stats.getLookups(SubstitutionStats.Source.JSON_POINTER);
+            substitution.files = stats.getLookups(SubstitutionStats.Source.FILE);
+            substitution.variableSources = stats.getLookups(SubstitutionStats.Source.VARIABLE_SOURCE);
+            substitution.expressions = stats.getLookups(SubstitutionStats.Source.EXPRESSION);
+            substitution.unresolved = stats.getLookups(SubstitutionStats.Source.UNRESOLVED);
+        }
+        substitution.commit();
+    }
+
+    private static Event begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+    @Name(PREFIX + "Assembly")
+    @Label("Config Assembly")
+    @Description("A run of the stack/load/assemble/substitute pipeline")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Assembly extends Event {
+
+        @Label("Server Command")
+        String serverCommand;
+
+        @Label("Layers")
+        int layers;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Nodes")
+        long nodes;
+    }
+
+    @Name(PREFIX + "Probe")
+    @Label("Config Probe")
+    @Description("A candidate path looked up with the source provider")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Probe extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Provider")
+        String provider;
+
+        @Label("Hit")
+        boolean hit;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name(PREFIX + "Parse")
+    @Label("Config Layer Parse")
+    @Description("A layer parsed, or read from the layer cache")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Parse extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Format")
+        String format;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Nodes")
+        long nodes;
+    }
+
+    @Name(PREFIX + "Merge")
+    @Label("Config Layer Merge")
+    @Description("A parsed layer merged into the layers below it")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Merge extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Array Strategy")
+        String arrayStrategy;
+
+        @Label("Incremental")
+        boolean incremental;
+    }
+
+    @Name(PREFIX + "Substitution")
+    @Label("Config Substitution")
+    @Description("A substitution pass over the assembled config")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Substitution extends Event {
+
+        @Label("Placeholders")
+        int placeholders;
+
+        @Label("System Property Lookups")
+        int systemProperties;
+
+        @Label("Env Lookups")
+        int env;
+
+        @Label("JSON Pointer Lookups")
+        int jsonPointers;
+
+        @Label("File Lookups")
+        int files;
+
+        @Label("Variable Source Lookups")
+        int variableSources;
+
+        @Label("Expressions")
+        int expressions;
+
+        @Label("Unresolved")
+        int unresolved;
+    }
+
+    private JfrPipelineEvents() {
+    }
+}
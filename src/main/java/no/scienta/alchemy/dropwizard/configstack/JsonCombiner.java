@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.stream.IntStream;
 
 import static no.scienta.alchemy.dropwizard.configstack.ArrayStrategy.APPEND;
@@ -15,7 +17,8 @@ import static no.scienta.alchemy.dropwizard.configstack.JsonUtils.*;
 final class JsonCombiner {
 
     /**
-     * Return a new node based on the base, with override on top.
+     * Return a new node based on the base, with override on top.  Neither argument is modified, but unchanged
+     * subtrees of both are shared with the result, so none of them should be modified afterwards.
      *
      * @param base     The base
      * @param override The override
@@ -29,8 +32,59 @@ final class JsonCombiner {
                 : override;
     }
 
+    /**
+     * Fold the override into the base, in place.  Objects and arrays in the base are updated, and nodes from the
+     * override are linked into the base without copying.  The result equals what {@link #combine} would return,
+     * but both arguments are consumed: neither may be shared with, or used by, anyone else afterwards.
+     *
+     * @param base     The base, which is modified
+     * @param override The override, whose nodes become part of the result
+     * @return The combined node, usually the base itself
+     */
+    static JsonNode fold(JsonNode base, JsonNode override, ArrayStrategy arrayStrategy) {
+        return isNull(base) ? override
+                : isNull(override) ? base
+                : isObject(base, override) ? foldObject((ObjectNode) base, (ObjectNode) override, arrayStrategy)
+                : isArray(base, override) ? foldArray((ArrayNode) base, (ArrayNode) override, arrayStrategy)
+                : override;
+    }
+
+    private static ObjectNode foldObject(ObjectNode base, ObjectNode override, ArrayStrategy arrays) {
+        Iterator<Map.Entry<String, JsonNode>> fields = override.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode current = base.get(field.getKey());
+            JsonNode folded = fold(current, field.getValue(), arrays);
+            if (folded != current) {
+                base.set(field.getKey(), folded);
+            }
+        }
+        return base;
+    }
+
+    private static ArrayNode foldArray(ArrayNode base, ArrayNode override, ArrayStrategy arrays) {
+        if (arrays == null || arrays == OVERLAY) {
+            for (int i = 0; i < override.size(); i++) {
+                if (i < base.size()) {
+                    JsonNode current = base.get(i);
+                    JsonNode folded = fold(current, override.get(i), arrays);
+                    if (folded != current) {
+                        base.set(i, folded);
+                    }
+                } else {
+                    base.add(override.get(i));
+                }
+            }
+            return base;
+        }
+        return arrays == REPLACE ? override
+                : arrays == APPEND ? base.addAll(override)
+                : sequence(base, override, false);
+    }
+
     private static ObjectNode combineObject(ObjectNode base, ObjectNode override, ArrayStrategy arrays) {
-        ObjectNode copy = base.deepCopy();
+        ObjectNode copy = objectNode();
+        copy.setAll(base);
         override.fieldNames().forEachRemaining(name ->
                 copy.set(name, combine(base.get(name), override.get(name), arrays)));
         return copy;
@@ -0,0 +1,138 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static no.scienta.alchemy.dropwizard.configstack.JsonUtils.escape;
+
+/**
+ * Compares each config tree to the previous one, giving JSON pointers to the values that changed.  A pointer
+ * is to the deepest object field or array element that was changed, added or removed.
+ * <p>
+ * Subtrees are compared by identity, then by a hash of their content, and only unequal subtrees are descended
+ * into.  Hashes are remembered for as long as their nodes live, so trees sharing unchanged subtrees with
+ * their predecessor, like those from an incremental {@link DefaultConfigurationAssembler}, are hashed and
+ * compared in time proportional to the change.  Not thread-safe.
+ */
+final class JsonDiff {
+
+    private static final HashFunction HASHING = Hashing.murmur3_128();
+
+    /**
+     * Hashes by node identity, dropped as nodes are collected.
+     */
+    private final Cache<JsonNode, HashCode> hashes = CacheBuilder.newBuilder().weakKeys().build();
+
+    private JsonNode previous;
+
+    /**
+     * @param tree New tree, which must not be modified afterwards
+     * @return Pointers to changed values, empty if the tree equals the previous one, or the root pointer for
+     * the first tree
+     */
+    List<String> next(JsonNode tree) {
+        List<String> changes = new ArrayList<>();
+        if (previous == null) {
+            changes.add("");
+        } else {
+            diff(previous, tree, new StringBuilder(), changes);
+        }
+        hash(tree);
+        previous = tree;
+        return changes;
+    }
+
+    private void diff(JsonNode before, JsonNode after, StringBuilder pointer, List<String> changes) {
+        if (before == after || hash(before).equals(hash(after))) {
+            return;
+        }
+        int length = pointer.length();
+        if (before.isObject() && after.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> fields = before.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode value = after.get(field.getKey());
+                escape(pointer.append('/'), field.getKey());
+                if (value == null) {
+                    changes.add(pointer.toString());
+                } else {
+                    diff(field.getValue(), value, pointer, changes);
+                }
+                pointer.setLength(length);
+            }
+            for (Iterator<String> names = after.fieldNames(); names.hasNext(); ) {
+                String name = names.next();
+                if (!before.has(name)) {
+                    changes.add(escape(pointer.append('/'), name).toString());
+                    pointer.setLength(length);
+                }
+            }
+        } else if (before.isArray() && after.isArray()) {
+            for (int i = 0; i < Math.max(before.size(), after.size()); i++) {
+                pointer.append('/').append(i);
+                if (i < before.size() && i < after.size()) {
+                    diff(before.get(i), after.get(i), pointer, changes);
+                } else {
+                    changes.add(pointer.toString());
+                }
+                pointer.setLength(length);
+            }
+        } else {
+            changes.add(pointer.toString());
+        }
+    }
+
+    /**
+     * @param node Node
+     * @return Hash of the node's content, insensitive to the order of object fields
+     */
+    private HashCode hash(JsonNode node) {
+        HashCode hash = hashes.getIfPresent(node);
+        if (hash == null) {
+            hash = computeHash(node);
+            hashes.put(node, hash);
+        }
+        return hash;
+    }
+
+    private HashCode computeHash(JsonNode node) {
+        if (node.isObject()) {
+            List<HashCode> fields = new ArrayList<>(node.size() + 1);
+            fields.add(HASHING.hashInt(node.getNodeType().ordinal()));
+            for (Iterator<Map.Entry<String, JsonNode>> iterator = node.fields(); iterator.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = iterator.next();
+                fields.add(HASHING.newHasher()
+                        .putString(field.getKey(), StandardCharsets.UTF_8)
+                        .putBytes(hash(field.getValue()).asBytes())
+                        .hash());
+            }
+            return Hashing.combineUnordered(fields);
+        }
+        if (node.isArray()) {
+            List<HashCode> elements = new ArrayList<>(node.size() + 1);
+            elements.add(HASHING.hashInt(node.getNodeType().ordinal()));
+            for (JsonNode element : node) {
+                elements.add(hash(element));
+            }
+            return Hashing.combineOrdered(elements);
+        }
+        return HASHING.newHasher()
+                .putInt(node.getNodeType().ordinal())
+                .putString(node.asText(), StandardCharsets.UTF_8)
+                .hash();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + hashes.size() + " hashed nodes]";
+    }
+}
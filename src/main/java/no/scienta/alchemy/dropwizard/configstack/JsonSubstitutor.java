@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.function.Function;
 
 import static no.scienta.alchemy.dropwizard.configstack.JsonUtils.arrayNode;
@@ -12,6 +14,14 @@ import static no.scienta.alchemy.dropwizard.configstack.JsonUtils.textNode;
 
 final class JsonSubstitutor {
 
+    /**
+     * Substitutes text values, copy-on-write: Only the objects and arrays on the path to a changed value are
+     * copied, and the rest of the result is shared with the base.  The base is not modified.
+     *
+     * @param base        Tree
+     * @param substitutor Text substitution
+     * @return The substituted tree, or the base itself if no values changed
+     */
     static JsonNode substitute(JsonNode base, Function<String, String> substitutor) {
         return JsonUtils.isNull(base) ? base
                 : base.isTextual() ? substitutedText(base, substitutor)
@@ -22,22 +32,34 @@ final class JsonSubstitutor {
 
 
     private static JsonNode array(JsonNode base, Function<String, String> substitutor) {
-        ArrayNode arr = arrayNode();
-        for (JsonNode el : base) {
-            arr.add(substitute(el, substitutor));
+        ArrayNode arr = null;
+        for (int i = 0; i < base.size(); i++) {
+            JsonNode el = base.get(i);
+            JsonNode substituted = substitute(el, substitutor);
+            if (substituted != el) {
+                if (arr == null) {
+                    arr = arrayNode().addAll((ArrayNode) base);
+                }
+                arr.set(i, substituted);
+            }
         }
-        return arr;
+        return arr == null ? base : arr;
     }
 
     private static JsonNode object(JsonNode base, Function<String, String> substitutor) {
-        ObjectNode obj = objectNode();
-        base.fieldNames().forEachRemaining(name ->
-                obj.set(name, substituted(base, name, substitutor)));
-        return obj;
-    }
-
-    private static JsonNode substituted(JsonNode base, String name, Function<String, String> substitutor) {
-        return substitute(base.get(name), substitutor);
+        ObjectNode obj = null;
+        for (Iterator<Map.Entry<String, JsonNode>> fields = base.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode substituted = substitute(field.getValue(), substitutor);
+            if (substituted != field.getValue()) {
+                if (obj == null) {
+                    obj = objectNode();
+                    obj.setAll((ObjectNode) base);
+                }
+                obj.set(field.getKey(), substituted);
+            }
+        }
+        return obj == null ? base : obj;
     }
 
     private static JsonNode substitutedText(JsonNode base, Function<String, String> substitutor) {
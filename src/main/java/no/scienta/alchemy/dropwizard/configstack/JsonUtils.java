@@ -6,21 +6,18 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 
-import java.util.Arrays;
-import java.util.function.Predicate;
-
 final class JsonUtils {
 
-    static boolean isNull(JsonNode... nodes) {
-        return nodes.length == 1 && empty(nodes[0]) || all(EMPTY, nodes);
+    static boolean isNull(JsonNode node) {
+        return node == null || node.isNull();
     }
 
-    static boolean isObject(JsonNode... nodes) {
-        return all(JsonNode::isObject, nodes);
+    static boolean isObject(JsonNode first, JsonNode second) {
+        return first != null && first.isObject() && second != null && second.isObject();
     }
 
-    static boolean isArray(JsonNode... nodes) {
-        return all(JsonNode::isArray, nodes);
+    static boolean isArray(JsonNode first, JsonNode second) {
+        return first != null && first.isArray() && second != null && second.isArray();
     }
 
     static ObjectNode objectNode() {
@@ -35,14 +32,35 @@ final class JsonUtils {
         return JsonNodeFactory.instance.textNode(text);
     }
 
-    private static final Predicate<JsonNode> EMPTY = JsonUtils::empty;
-
-    private static boolean empty(JsonNode node) {
-        return node == null || node.isNull();
+    /**
+     * @param pointer   JSON pointer being built
+     * @param fieldName Field name, to be appended as a pointer segment
+     * @return The pointer
+     */
+    static StringBuilder escape(StringBuilder pointer, String fieldName) {
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c == '~') {
+                pointer.append("~0");
+            } else if (c == '/') {
+                pointer.append("~1");
+            } else {
+                pointer.append(c);
+            }
+        }
+        return pointer;
     }
 
-    private static boolean all(Predicate<JsonNode> test, JsonNode... nodes) {
-        return nodes.length == 1 && test.test(nodes[0]) || Arrays.stream(nodes).allMatch(test);
+    /**
+     * @param node Node
+     * @return Number of nodes in the tree, including the root
+     */
+    static long count(JsonNode node) {
+        long count = 1L;
+        for (JsonNode child : node) {
+            count += count(child);
+        }
+        return count;
     }
 
     private JsonUtils() {
@@ -0,0 +1,78 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Parsed layers, stored as Smile in a directory, so an unchanged layer can be decoded instead of parsed.  Entries
+ * are keyed by path and content hash, and the directory can be shared by processes loading the same layers.
+ * Only the most recently used entries are kept.  I/O failures are logged and treated as misses.
+ */
+final class LayerCache {
+
+    private static final ObjectMapper SMILE = new ObjectMapper(new SmileFactory());
+
+    private final CacheDirectory directory;
+
+    private final ProgressLogger progressLogger;
+
+    LayerCache(Path directory, int maxLayers, ProgressLogger progressLogger) {
+        this.directory = new CacheDirectory(directory, "layer-", ".smile", maxLayers);
+        this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
+    }
+
+    /**
+     * @param loadedData Layer, with content
+     * @param parser     Parses the layer on a miss
+     * @return Parsed layer, or null if the parser found no content
+     */
+    JsonNode read(LoadedData loadedData, Function<LoadedData, JsonNode> parser) {
+        Path path = directory.entry(key(loadedData));
+        if (Files.isRegularFile(path)) {
+            try {
+                JsonNode cached = SMILE.readTree(path.toFile());
+                directory.touch(path);
+                progressLogger.println(() -> "Layer cache hit: " + loadedData.getPath());
+                return cached;
+            } catch (Exception e) {
+                progressLogger.println(() -> "Failed to read cached layer " + path + ": " + e);
+            }
+        } else {
+            progressLogger.println(() -> "Layer cache miss: " + loadedData.getPath());
+        }
+        JsonNode parsed = parser.apply(loadedData);
+        if (parsed != null) {
+            try {
+                directory.write(path, out -> SMILE.writeValue(out, parsed), evicted ->
+                        progressLogger.println(() -> "Cached layer evicted: " + evicted));
+            } catch (Exception e) {
+                progressLogger.println(() -> "Failed to cache layer " + path + ": " + e);
+            }
+        }
+        return parsed;
+    }
+
+    private static String key(LoadedData loadedData) {
+        HashCode contentHash = Objects.requireNonNull(loadedData.contentHash(), "contentHash");
+        return Hashing.sha256().newHasher()
+                .putString(loadedData.getPath(), StandardCharsets.UTF_8)
+                .putInt(0)
+                .putBytes(contentHash.asBytes())
+                .hash()
+                .toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + directory + "]";
+    }
+}
@@ -0,0 +1,56 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.dropwizard.Bundle;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * The config the application runs with, as reloaded while it runs when
+ * {@link ConfigStackBundler#enableReloading(java.time.Duration, java.time.Duration) reloading} is enabled.  Bundles
+ * from {@link ConfigStackBundler#bundle()} implement this, see {@link #of(Bundle)}.  Trees are shared, and should
+ * not be modified.
+ */
+public interface LiveConfiguration {
+
+    /**
+     * @param bundle A bundle from {@link ConfigStackBundler#bundle()}
+     * @return The live config of the bundle
+     * @throws IllegalArgumentException If the bundle is not from a {@link ConfigStackBundler}
+     */
+    static LiveConfiguration of(Bundle bundle) {
+        if (bundle instanceof LiveConfiguration) {
+            return (LiveConfiguration) bundle;
+        }
+        throw new IllegalArgumentException("Not a config stack bundle: " + bundle);
+    }
+
+    /**
+     * @return The current config tree, once the application runs
+     */
+    Optional<JsonNode> getConfigTree();
+
+    /**
+     * @param listener Called with each new config tree, on the reloading thread
+     */
+    default void addListener(Consumer<JsonNode> listener) {
+        addListener("", listener);
+    }
+
+    /**
+     * @param pointer  JSON pointer to a subtree, empty for the whole config
+     * @param listener Called with the new subtree, or a missing node, on the reloading thread, when a new config
+     *                 changes anything at, above or below the pointer
+     */
+    void addListener(String pointer, Consumer<JsonNode> listener);
+
+    /**
+     * @param pointer JSON pointer to a subtree, empty for the whole config
+     * @param type    Type to bind the subtree to
+     * @param <T>     Bound type
+     * @return Handle to the current value, bound once the application runs
+     * @throws IllegalArgumentException If a config is already published, and its subtree cannot be bound
+     */
+    <T> ConfigHandle<T> getHandle(String pointer, Class<T> type);
+}
@@ -1,5 +1,7 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayInputStream;
@@ -66,6 +68,13 @@ public final class LoadedData {
         return Suffix.YAML.isSuffixed(this.path);
     }
 
+    /**
+     * @return Format of the resource, by its suffix
+     */
+    Suffix getSuffix() {
+        return Suffix.of(this.path);
+    }
+
     /**
      * @return True iff content was found at the resource path
      */
@@ -73,6 +82,20 @@ public final class LoadedData {
         return contents != null;
     }
 
+    /**
+     * @return Size of the content in bytes, 0 if no content was found
+     */
+    int size() {
+        return contents == null ? 0 : contents.length;
+    }
+
+    /**
+     * @return SHA-256 of the content, or null if no content was found
+     */
+    HashCode contentHash() {
+        return contents == null ? null : Hashing.sha256().hashBytes(contents);
+    }
+
     /**
      * @return A new input stream for the content found at the path
      */
@@ -0,0 +1,299 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.UniformReservoir;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import no.scienta.alchemy.dropwizard.configstack.PipelineMetrics.Stage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+/**
+ * Opt-in accounting of the memory used by the pipeline: bytes allocated by the calling thread in each stage,
+ * and estimated retained sizes of the intermediate structures of the last run.  Allocations are read from
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, where the JVM supports it, and
+ * allocations on other threads, like concurrent probes, are not counted.
+ * <p>
+ * Retained sizes are estimated for a 64-bit JVM with compressed oops and two-byte chars, counting shared
+ * subtrees and strings once per structure, and are meant for sizing heap headroom rather than exact figures.
+ */
+final class MemoryAccounting {
+
+    /**
+     * Structures held during a run.
+     */
+    enum Structure {
+
+        /**
+         * Raw bytes of the loaded layers
+         */
+        LAYERS,
+
+        /**
+         * Parsed layers, by the default {@link ConfigurationAssembler}
+         */
+        PARSED,
+
+        /**
+         * The merged tree, before substitution
+         */
+        MERGED,
+
+        /**
+         * The substituted tree
+         */
+        SUBSTITUTED,
+
+        /**
+         * The serialized config
+         */
+        SERIALIZED
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final Map<Stage, Histogram> allocations = new EnumMap<>(Stage.class);
+
+    private final AtomicLongArray allocated = new AtomicLongArray(Stage.values().length);
+
+    private final AtomicLongArray retained = new AtomicLongArray(Structure.values().length);
+
+    MemoryAccounting() {
+        for (Stage stage : Stage.values()) {
+            allocations.put(stage, new Histogram(new UniformReservoir()));
+        }
+    }
+
+    /**
+     * @return True iff allocations can be measured
+     */
+    static boolean allocationsSupported() {
+        return THREADS != null;
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, to be passed to {@link #allocated(Stage, long)}, or
+     * -1 if not supported
+     */
+    long threadAllocated() {
+        return THREADS == null ? -1L : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param stage Stage that ran on the current thread
+     * @param start {@link #threadAllocated() Allocated bytes} when it started
+     */
+    void allocated(Stage stage, long start) {
+        if (start >= 0L) {
+            long bytes = threadAllocated() - start;
+            allocations.get(stage).update(bytes);
+            allocated.set(stage.ordinal(), bytes);
+        }
+    }
+
+    /**
+     * Starts accounting for a new run, with its loaded layers.
+     *
+     * @param loaded Loaded layers
+     */
+    void loaded(Collection<LoadedData> loaded) {
+        for (Structure structure : Structure.values()) {
+            retained.set(structure.ordinal(), 0L);
+        }
+        retained.set(Structure.LAYERS.ordinal(), loaded.stream().mapToLong(MemoryAccounting::size).sum());
+    }
+
+    /**
+     * @param structure Structure
+     * @param bytes     Its estimated size, added to other structures of the same kind in this run
+     */
+    void retained(Structure structure, long bytes) {
+        retained.addAndGet(structure.ordinal(), bytes);
+    }
+
+    /**
+     * @param structure Structure
+     * @return Its estimated size in the last run
+     */
+    long getRetained(Structure structure) {
+        return retained.get(structure.ordinal());
+    }
+
+    /**
+     * @param stage Stage
+     * @return Bytes it allocated in the last run, 0 if not measured
+     */
+    long getAllocated(Stage stage) {
+        return allocated.get(stage.ordinal());
+    }
+
+    /**
+     * @param registry Registry to add the metrics to
+     */
+    void register(MetricRegistry registry) {
+        if (allocationsSupported()) {
+            allocations.forEach((stage, histogram) ->
+                    registry.register(PipelineMetrics.name(stage.name() + ".allocated"), histogram));
+        }
+        for (Structure structure : Structure.values()) {
+            registry.register(PipelineMetrics.name("retained." + structure.name()), (Gauge<Long>) () ->
+                    getRetained(structure));
+        }
+    }
+
+    /**
+     * @return Allocations and retained sizes of the last run, for logging when it is assembled.  The
+     * {@link Structure#SERIALIZED serialized} config is left out, as it is only serialized later, on first read.
+     */
+    String report() {
+        return "Config memory: allocated " + (allocationsSupported()
+                ? Arrays.stream(Stage.values())
+                .map(stage -> stage.name().toLowerCase() + " " + getAllocated(stage))
+                .collect(Collectors.joining(", "))
+                : "not measured") +
+                "; retained " + Arrays.stream(Structure.values())
+                .filter(structure -> structure != Structure.SERIALIZED)
+                .map(structure -> structure.name().toLowerCase() + " " + getRetained(structure))
+                .collect(Collectors.joining(", ")) +
+                " (bytes)";
+    }
+
+    /**
+     * @param loaded Loaded layer
+     * @return Its estimated size
+     */
+    static long size(LoadedData loaded) {
+        return align(HEADER + 2 * REFERENCE) + size(loaded.getPath()) + bytes(loaded.size());
+    }
+
+    /**
+     * @param length Length of a byte array
+     * @return Its estimated size
+     */
+    static long bytes(int length) {
+        return align(ARRAY_HEADER + length);
+    }
+
+    /**
+     * @param tree Tree
+     * @return Its estimated size, counting shared nodes and strings once
+     */
+    static long size(JsonNode tree) {
+        return tree == null ? 0L : size(tree, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Estimates a tree known not to share nodes, like a freshly parsed one, without tracking the nodes seen.
+     * Allocates little, so it can be used inside a stage being measured.
+     *
+     * @param tree Tree
+     * @return Its estimated size
+     */
+    static long unsharedSize(JsonNode tree) {
+        return tree == null ? 0L : size(tree, null);
+    }
+
+    /**
+     * @param seen Nodes and strings counted so far, or null to count all
+     */
+    private static long size(JsonNode node, Set<Object> seen) {
+        if (seen != null && !seen.add(node)) {
+            return 0L;
+        }
+        switch (node.getNodeType()) {
+            case OBJECT:
+                long object = align(HEADER + REFERENCE) + HASH_MAP +
+                        align(ARRAY_HEADER + REFERENCE * (long) tableSize(node.size()));
+                for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    object += HASH_MAP_ENTRY +
+                            (seen == null || seen.add(field.getKey()) ? size(field.getKey()) : 0L) +
+                            size(field.getValue(), seen);
+                }
+                return object;
+            case ARRAY:
+                long array = align(HEADER + REFERENCE) + ARRAY_LIST +
+                        align(ARRAY_HEADER + REFERENCE * (long) Math.max(10, node.size()));
+                for (JsonNode element : node) {
+                    array += size(element, seen);
+                }
+                return array;
+            case STRING:
+                return align(HEADER + REFERENCE) + size(node.textValue());
+            case BINARY:
+                return align(HEADER + REFERENCE) + bytes(((BinaryNode) node).binaryValue().length);
+            case NUMBER:
+                return node.isBigDecimal() || node.isBigInteger() ? align(HEADER + REFERENCE) + BIG_NUMBER
+                        : node.isLong() || node.isDouble() ? align(HEADER + 8) : align(HEADER + 4);
+            case POJO:
+                return align(HEADER + REFERENCE);
+            default:
+                return 0L; // Shared singletons
+        }
+    }
+
+    private static long size(String string) {
+        return align(HEADER + REFERENCE + 4) + align(ARRAY_HEADER + 2L * string.length());
+    }
+
+    private static int tableSize(int entries) {
+        int size = 16;
+        while (size * 3 / 4 < entries) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    private static long align(long size) {
+        return (size + 7L) & ~7L;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+                if (sunThreads.isThreadAllocatedMemorySupported()) {
+                    if (!sunThreads.isThreadAllocatedMemoryEnabled()) {
+                        sunThreads.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    return sunThreads;
+                }
+            }
+        } catch (LinkageError | RuntimeException ignore) {
+        }
+        return null;
+    }
+
+    private static final long HEADER = 12L;
+
+    private static final long REFERENCE = 4L;
+
+    private static final long ARRAY_HEADER = 16L;
+
+    private static final long HASH_MAP = 56L;
+
+    private static final long HASH_MAP_ENTRY = 40L;
+
+    private static final long ARRAY_LIST = 24L;
+
+    private static final long BIG_NUMBER = 40L;
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + report() + "]";
+    }
+}
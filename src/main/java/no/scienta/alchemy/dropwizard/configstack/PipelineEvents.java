@@ -0,0 +1,116 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+
+import java.util.Collection;
+
+/**
+ * Emits Java Flight Recorder events for the pipeline, see {@link JfrPipelineEvents}.  Each event is begun by
+ * a {@code begin} method, which returns null unless a recording has the event enabled, and the result is passed
+ * to the matching {@code end} method.  Event fields are only computed for non-null events, so the cost when not
+ * recording is a check of a constant and an enabled flag.
+ * <p>
+ * This class does not refer to any JFR types, and only calls {@link JfrPipelineEvents} if the running JVM has
+ * JFR, so the library still runs on JVMs without it.
+ */
+final class PipelineEvents {
+
+    private static final boolean AVAILABLE = jfrAvailable();
+
+    /**
+     * @return True iff the JVM supports JFR events
+     */
+    static boolean available() {
+        return AVAILABLE;
+    }
+
+    static Object beginAssembly() {
+        return AVAILABLE ? JfrPipelineEvents.beginAssembly() : null;
+    }
+
+    /**
+     * @param event         Event, or null
+     * @param serverCommand Server command argument
+     * @param loaded        Layers loaded, or null if none were
+     * @param config        Resulting config, or null if none
+     */
+    static void endAssembly(Object event, String serverCommand, Collection<LoadedData> loaded, JsonNode config) {
+        if (event != null) {
+            JfrPipelineEvents.endAssembly(event, serverCommand, loaded, config);
+        }
+    }
+
+    static Object beginProbe() {
+        return AVAILABLE ? JfrPipelineEvents.beginProbe() : null;
+    }
+
+    /**
+     * @param event    Event, or null
+     * @param path     Candidate path
+     * @param provider Provider probed
+     * @param loaded   Data found, or null on a miss
+     */
+    static void endProbe(Object event, String path, ConfigurationSourceProvider provider, LoadedData loaded) {
+        if (event != null) {
+            JfrPipelineEvents.endProbe(event, path, provider, loaded);
+        }
+    }
+
+    static Object beginParse() {
+        return AVAILABLE ? JfrPipelineEvents.beginParse() : null;
+    }
+
+    /**
+     * @param event  Event, or null
+     * @param loaded Layer parsed
+     * @param parsed Parsed tree, or null if it had no content
+     */
+    static void endParse(Object event, LoadedData loaded, JsonNode parsed) {
+        if (event != null) {
+            JfrPipelineEvents.endParse(event, loaded, parsed);
+        }
+    }
+
+    static Object beginMerge() {
+        return AVAILABLE ? JfrPipelineEvents.beginMerge() : null;
+    }
+
+    /**
+     * @param event         Event, or null
+     * @param loaded        Layer merged
+     * @param arrayStrategy How arrays were combined
+     * @param incremental   True iff merged into a copy, rather than in place
+     */
+    static void endMerge(Object event, LoadedData loaded, ArrayStrategy arrayStrategy, boolean incremental) {
+        if (event != null) {
+            JfrPipelineEvents.endMerge(event, loaded, arrayStrategy, incremental);
+        }
+    }
+
+    static Object beginSubstitution() {
+        return AVAILABLE ? JfrPipelineEvents.beginSubstitution() : null;
+    }
+
+    /**
+     * @param event Event, or null
+     * @param stats Counts of the pass, or null if not counted
+     */
+    static void endSubstitution(Object event, SubstitutionStats stats) {
+        if (event != null) {
+            JfrPipelineEvents.endSubstitution(event, stats);
+        }
+    }
+
+    private static boolean jfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PipelineEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private PipelineEvents() {
+    }
+}
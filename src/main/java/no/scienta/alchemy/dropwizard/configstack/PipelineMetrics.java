@@ -0,0 +1,174 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Timings of each pipeline stage, and the sizes of the last config assembled.  Kept by the provider, as the
+ * pipeline first runs before there is a {@link MetricRegistry}, and {@link #register(MetricRegistry) registered}
+ * when the application runs.  Names start with {@value #PREFIX}.
+ * <p>
+ * With {@link MemoryAccounting memory accounting}, the bytes allocated by each stage and the retained sizes of
+ * intermediate structures are kept as well.
+ */
+final class PipelineMetrics {
+
+    static final String PREFIX = "configstack";
+
+    /**
+     * Pipeline stages.
+     */
+    enum Stage {
+
+        STACK, LOAD, ASSEMBLE, SUBSTITUTE
+    }
+
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+
+    private final Histogram layerBytes = new Histogram(new UniformReservoir());
+
+    private volatile int layers;
+
+    private volatile long bytes;
+
+    private volatile long nodes;
+
+    private volatile SubstitutionStats substitution = new SubstitutionStats();
+
+    private final MemoryAccounting memory;
+
+    PipelineMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param accountMemory Keep allocations and retained sizes
+     */
+    PipelineMetrics(boolean accountMemory) {
+        this.memory = accountMemory ? new MemoryAccounting() : null;
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, new Timer());
+        }
+    }
+
+    /**
+     * @param stage Stage
+     * @param step  Runs the stage
+     * @return The stage's result
+     */
+    <T> T time(Stage stage, Supplier<T> step) {
+        Timer.Context time = timers.get(stage).time();
+        long allocated = memory == null ? -1L : memory.threadAllocated();
+        try {
+            return step.get();
+        } finally {
+            time.stop();
+            if (memory != null) {
+                memory.allocated(stage, allocated);
+            }
+        }
+    }
+
+    void loaded(Collection<LoadedData> loaded) {
+        long bytes = 0L;
+        for (LoadedData data : loaded) {
+            layerBytes.update(data.size());
+            bytes += data.size();
+        }
+        this.layers = loaded.size();
+        this.bytes = bytes;
+        if (memory != null) {
+            memory.loaded(loaded);
+        }
+    }
+
+    /**
+     * @return True iff allocations and retained sizes are kept
+     */
+    boolean accountsMemory() {
+        return memory != null;
+    }
+
+    /**
+     * @param structure Structure of the current run
+     * @param tree      Tree to estimate the size of, if accounting memory
+     */
+    void retained(MemoryAccounting.Structure structure, JsonNode tree) {
+        if (memory != null) {
+            memory.retained(structure, MemoryAccounting.size(tree));
+        }
+    }
+
+    /**
+     * @param parsed Parsed layer of the current run, to estimate the size of if accounting memory
+     */
+    void parsed(JsonNode parsed) {
+        if (memory != null) {
+            memory.retained(MemoryAccounting.Structure.PARSED, MemoryAccounting.unsharedSize(parsed));
+        }
+    }
+
+    /**
+     * @param serialized Length of the serialized config
+     */
+    void serialized(int serialized) {
+        if (memory != null) {
+            memory.retained(MemoryAccounting.Structure.SERIALIZED, MemoryAccounting.bytes(serialized));
+        }
+    }
+
+    /**
+     * @return Allocations and retained sizes of the last run, if accounting memory
+     */
+    Optional<String> memoryReport() {
+        return Optional.ofNullable(memory).map(MemoryAccounting::report);
+    }
+
+    void substituted(SubstitutionStats substitution) {
+        this.substitution = substitution;
+    }
+
+    void assembled(JsonNode config) {
+        this.nodes = JsonUtils.count(config);
+        retained(MemoryAccounting.Structure.SUBSTITUTED, config);
+    }
+
+    /**
+     * @param registry Registry to add the metrics to
+     */
+    void register(MetricRegistry registry) {
+        timers.forEach((stage, timer) -> registry.register(name(stage.name()), timer));
+        registry.register(name("layer.bytes"), layerBytes);
+        registry.register(name("layers"), (Gauge<Integer>) () -> layers);
+        registry.register(name("bytes"), (Gauge<Long>) () -> bytes);
+        registry.register(name("nodes"), (Gauge<Long>) () -> nodes);
+        registry.register(name("placeholders"), (Gauge<Integer>) () -> substitution.getPlaceholders());
+        for (SubstitutionStats.Source source : SubstitutionStats.Source.values()) {
+            registry.register(name("lookups." + source.name()), (Gauge<Integer>) () ->
+                    substitution.getLookups(source));
+        }
+        if (memory != null) {
+            memory.register(registry);
+        }
+    }
+
+    static String name(String name) {
+        return MetricRegistry.name(PREFIX, name.toLowerCase().replace('_', '-'));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[layers=" + layers + " bytes=" + bytes + " nodes=" + nodes + " " +
+                substitution + (memory == null ? "" : " " + memory.report()) + "]";
+    }
+}
@@ -0,0 +1,90 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Values registered on JSON pointers, found by the pointers of changes.  A value is affected by a change at its
+ * own pointer, at a prefix of it, or below it.  Pointers are matched segment by segment, in escaped form.
+ *
+ * @param <T> Value type
+ */
+final class PointerTrie<T> {
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * @param pointer JSON pointer, empty for the root
+     * @param value   Value
+     */
+    synchronized void add(String pointer, T value) {
+        Node<T> node = root;
+        for (String segment : segments(pointer)) {
+            node = node.children.computeIfAbsent(segment, key -> new Node<>());
+        }
+        node.values.add(Objects.requireNonNull(value, "value"));
+    }
+
+    /**
+     * @param changes Pointers to changed values
+     * @return Values affected by any of the changes, each once, in order of registration per pointer
+     */
+    synchronized Set<T> affected(Collection<String> changes) {
+        Set<T> affected = new LinkedHashSet<>();
+        for (String change : changes) {
+            Node<T> node = root;
+            for (String segment : segments(change)) {
+                affected.addAll(node.values);
+                node = node.children.get(segment);
+                if (node == null) {
+                    break;
+                }
+            }
+            if (node != null) {
+                node.collect(affected);
+            }
+        }
+        return affected;
+    }
+
+    private static List<String> segments(String pointer) {
+        if (pointer.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("Invalid JSON pointer: " + pointer);
+        }
+        List<String> segments = new ArrayList<>();
+        int start = 1;
+        for (int i = 1; i <= pointer.length(); i++) {
+            if (i == pointer.length() || pointer.charAt(i) == '/') {
+                segments.add(pointer.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    private static final class Node<T> {
+
+        private final List<T> values = new ArrayList<>();
+
+        private final Map<String, Node<T>> children = new LinkedHashMap<>();
+
+        private void collect(Set<T> affected) {
+            affected.addAll(values);
+            children.values().forEach(child -> child.collect(affected));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + root.children.keySet() + "]";
+    }
+}
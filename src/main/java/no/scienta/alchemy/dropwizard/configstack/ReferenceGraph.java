@@ -0,0 +1,132 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static no.scienta.alchemy.dropwizard.configstack.JsonUtils.escape;
+
+/**
+ * The references between the text values of a config, by JSON pointer, e.g. from a value {@code ${/server/port}}
+ * at {@code /admin/port} to the value at {@code /server/port}.  Only references to values that contain
+ * placeholders themselves are edges, as other values resolve directly.  References in defaults are not
+ * edges, since they are only followed when the key is unknown.
+ */
+final class ReferenceGraph {
+
+    private final Map<String, List<String>> references;
+
+    private ReferenceGraph(Map<String, List<String>> references) {
+        this.references = references;
+    }
+
+    /**
+     * @param node     Config
+     * @param compiler Compiles text values
+     * @param pointers Gives the JSON pointer a key references in the config, or null for keys resolved outside
+     *                 the config
+     * @return The graph
+     */
+    static ReferenceGraph build(
+            JsonNode node,
+            Function<String, SubstitutionTemplate> compiler,
+            Function<String, String> pointers
+    ) {
+        Map<String, List<String>> references = new LinkedHashMap<>();
+        collect(node, new StringBuilder(), compiler, pointers, references);
+        references.values().forEach(keys -> keys.retainAll(references.keySet()));
+        return new ReferenceGraph(references);
+    }
+
+    private static void collect(
+            JsonNode value,
+            StringBuilder pointer,
+            Function<String, SubstitutionTemplate> compiler,
+            Function<String, String> pointers,
+            Map<String, List<String>> references
+    ) {
+        int length = pointer.length();
+        if (value.isTextual()) {
+            if (SubstitutionTemplate.hasPlaceholders(value.textValue())) {
+                List<String> keys = new ArrayList<>();
+                for (String key : compiler.apply(value.textValue()).references()) {
+                    String referenced = pointers.apply(key);
+                    if (referenced != null) {
+                        keys.add(referenced);
+                    }
+                }
+                references.put(pointer.toString(), keys);
+            }
+        } else if (value.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> fields = value.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                collect(field.getValue(), escape(pointer.append('/'), field.getKey()), compiler, pointers, references);
+                pointer.setLength(length);
+            }
+        } else if (value.isArray()) {
+            for (int i = 0; i < value.size(); i++) {
+                collect(value.get(i), pointer.append('/').append(i), compiler, pointers, references);
+                pointer.setLength(length);
+            }
+        }
+    }
+
+    /**
+     * @return Pointers to all referenced values, each one after the values it references
+     * @throws IllegalStateException If the references have a cycle
+     */
+    List<String> resolutionOrder() {
+        Set<String> referenced = references.values().stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        List<String> order = new ArrayList<>(referenced.size());
+        Set<String> done = new HashSet<>();
+        for (String start : referenced) {
+            if (!done.contains(start)) {
+                visit(start, done, order);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Depth-first, without recursion, so long chains don't exhaust the stack.
+     */
+    private void visit(String start, Set<String> done, List<String> order) {
+        List<String> path = new ArrayList<>();
+        Set<String> onPath = new HashSet<>();
+        Deque<Iterator<String>> pending = new ArrayDeque<>();
+        path.add(start);
+        onPath.add(start);
+        pending.push(references.get(start).iterator());
+        while (!pending.isEmpty()) {
+            Iterator<String> next = pending.peek();
+            if (next.hasNext()) {
+                String pointer = next.next();
+                if (onPath.contains(pointer)) {
+                    List<String> cycle = new ArrayList<>(path.subList(path.indexOf(pointer), path.size()));
+                    cycle.add(pointer);
+                    throw new IllegalStateException("Circular references: " + String.join(" -> ", cycle));
+                }
+                if (done.add(pointer)) {
+                    path.add(pointer);
+                    onPath.add(pointer);
+                    pending.push(references.get(pointer).iterator());
+                }
+            } else {
+                pending.pop();
+                String pointer = path.remove(path.size() - 1);
+                onPath.remove(pointer);
+                done.add(pointer);
+                order.add(pointer);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + references.size() + " templated values]";
+    }
+}
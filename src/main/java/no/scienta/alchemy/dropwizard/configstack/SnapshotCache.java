@@ -0,0 +1,144 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Assembled and substituted configs, stored in a directory so later boots can skip assembly.  A snapshot is
+ * found by a key derived from the settings that shape the config, the server command argument and the contents
+ * of the loaded layers, and is only used if the system properties and env variables it was substituted with still have the same values.  Values
+ * are stored as hashes, but the config itself is stored as-is, so the directory should be private.
+ * <p>
+ * Only the most recently used snapshots are kept.  I/O failures are logged and treated as misses.
+ */
+final class SnapshotCache {
+
+    private static final String VARIABLES = "variables";
+
+    private static final String CONFIG = "config";
+
+    /**
+     * Version of the snapshot format, and of how configs are assembled and substituted.  Bump to ignore older
+     * snapshots.
+     */
+    static final int FORMAT = 1;
+
+    private final CacheDirectory directory;
+
+    private final ObjectMapper objectMapper;
+
+    private final ProgressLogger progressLogger;
+
+    private final String settings;
+
+    /**
+     * @param settings The settings that turn layers into a config, like the array strategy and whether variables
+     *                 are substituted, as names and values
+     */
+    SnapshotCache(Path directory,
+                  int maxSnapshots,
+                  Map<String, ?> settings,
+                  ObjectMapper objectMapper,
+                  ProgressLogger progressLogger) {
+        this.directory = new CacheDirectory(directory, "snapshot-", ".json", maxSnapshots);
+        this.settings = "format=" + FORMAT + " " + new TreeMap<>(Objects.requireNonNull(settings, "settings"));
+        this.objectMapper = Objects.requireNonNull(objectMapper, "objectMapper");
+        this.progressLogger = Objects.requireNonNull(progressLogger, "progressLogger");
+    }
+
+    /**
+     * @param serverCommand Server command argument
+     * @param loaded        Loaded layers
+     * @return Snapshot key
+     */
+    String key(String serverCommand, Collection<LoadedData> loaded) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putString(settings, StandardCharsets.UTF_8)
+                .putInt(0)
+                .putString(serverCommand, StandardCharsets.UTF_8);
+        for (LoadedData data : loaded) {
+            HashCode contentHash = data.contentHash();
+            hasher.putInt(0)
+                    .putString(data.getPath(), StandardCharsets.UTF_8)
+                    .putInt(0)
+                    .putBytes(contentHash == null ? new byte[0] : contentHash.asBytes());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param key       Snapshot key
+     * @param variables Current values of system properties and env variables
+     * @return Snapshot, if one exists for the key and its variables still have the same values
+     */
+    Optional<JsonNode> get(String key, Function<String, String> variables) {
+        Path path = directory.entry(key);
+        if (!Files.isRegularFile(path)) {
+            progressLogger.println(() -> "Snapshot miss: " + path);
+            return Optional.empty();
+        }
+        try {
+            JsonNode snapshot = objectMapper.readTree(path.toFile());
+            JsonNode stored = snapshot.path(VARIABLES);
+            for (Iterator<Map.Entry<String, JsonNode>> fields = stored.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String current = hash(variables.apply(field.getKey()));
+                String previous = field.getValue().isNull() ? null : field.getValue().textValue();
+                if (!Objects.equals(current, previous)) {
+                    progressLogger.println(() -> "Snapshot stale, " + field.getKey() + " changed: " + path);
+                    return Optional.empty();
+                }
+            }
+            JsonNode config = snapshot.get(CONFIG);
+            if (config == null || !config.isObject()) {
+                progressLogger.println(() -> "Snapshot invalid: " + path);
+                return Optional.empty();
+            }
+            directory.touch(path);
+            progressLogger.println(() -> "Snapshot hit: " + path);
+            return Optional.of(config);
+        } catch (Exception e) {
+            progressLogger.println(() -> "Failed to read snapshot " + path + ": " + e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param key       Snapshot key
+     * @param variables System properties and env variables looked up, and their values or null
+     * @param config    Config
+     */
+    void put(String key, Map<String, String> variables, JsonNode config) {
+        Path path = directory.entry(key);
+        try {
+            ObjectNode snapshot = JsonUtils.objectNode();
+            ObjectNode stored = snapshot.putObject(VARIABLES);
+            variables.forEach((name, value) -> stored.put(name, hash(value)));
+            snapshot.set(CONFIG, config);
+            directory.write(path, out -> objectMapper.writeValue(out, snapshot), evicted ->
+                    progressLogger.println(() -> "Snapshot evicted: " + evicted));
+            progressLogger.println(() -> "Snapshot stored: " + path);
+        } catch (Exception e) {
+            progressLogger.println(() -> "Failed to store snapshot " + path + ": " + e);
+        }
+    }
+
+    private static String hash(String value) {
+        return value == null ? null : Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + directory + " " + settings + "]";
+    }
+}
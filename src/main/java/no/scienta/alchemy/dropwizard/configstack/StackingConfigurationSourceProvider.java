@@ -2,16 +2,39 @@ package no.scienta.alchemy.dropwizard.configstack;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
+import no.scienta.alchemy.dropwizard.configstack.MemoryAccounting.Structure;
+import no.scienta.alchemy.dropwizard.configstack.PipelineMetrics.Stage;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+/**
+ * Runs the stack/load/assemble/substitute pipeline for a {@link io.dropwizard.cli.ServerCommand server command}
+ * argument.  Safe for concurrent use, given a thread-safe {@link ProgressLogger}: concurrent requests for the same
+ * argument share a single pipeline run, and results may be memoized in a size-bounded cache.  Callers always get
+ * their own copy of the result.
+ */
 final class StackingConfigurationSourceProvider implements ConfigurationSourceProvider {
 
     private final ObjectMapper objectMapper;
@@ -26,6 +49,18 @@ final class StackingConfigurationSourceProvider implements ConfigurationSourcePr
 
     private final ProgressLogger progressLogger;
 
+    private final PipelineMetrics metrics;
+
+    private final ConcurrentMap<String, CompletableFuture<Assembled>> inFlight = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CompletableFuture<Assembled>> preassembled = new ConcurrentHashMap<>();
+
+    private final Cache<String, Assembled> cache;
+
+    private final SnapshotCache snapshots;
+
+    private volatile Assembled last;
+
     StackingConfigurationSourceProvider(ConfigurationStacker configurationStacker,
                                         ConfigurationResourceResolver configurationResourceResolver,
                                         ConfigurationLoader configurationLoader,
@@ -33,6 +68,36 @@ final class StackingConfigurationSourceProvider implements ConfigurationSourcePr
                                         ConfigurationSubstitutor configurationSubstitutor,
                                         ObjectMapper objectMapper,
                                         ProgressLogger progressLogger) {
+        this(configurationStacker,
+                configurationResourceResolver,
+                configurationLoader,
+                configurationAssembler,
+                configurationSubstitutor,
+                objectMapper,
+                progressLogger,
+                0,
+                null,
+                false);
+    }
+
+    /**
+     * @param cacheSize     Max number of assembled configs to memoize, 0 for none
+     * @param snapshots     Snapshots of assembled configs, or null.  Requires a substitutor that either is a
+     *                      {@link DefaultConfigurationSubstitutor}
+     *                      {@link DefaultConfigurationSubstitutor#tracksVariables() tracking variables}, or makes no
+     *                      substitutions
+     * @param accountMemory Measure allocations and estimate retained sizes of each run, and log them
+     */
+    StackingConfigurationSourceProvider(ConfigurationStacker configurationStacker,
+                                        ConfigurationResourceResolver configurationResourceResolver,
+                                        ConfigurationLoader configurationLoader,
+                                        ConfigurationAssembler configurationAssembler,
+                                        ConfigurationSubstitutor configurationSubstitutor,
+                                        ObjectMapper objectMapper,
+                                        ProgressLogger progressLogger,
+                                        int cacheSize,
+                                        SnapshotCache snapshots,
+                                        boolean accountMemory) {
         this.configurationStacker =
                 Objects.requireNonNull(configurationStacker, "configurationStacker");
         this.configurationLoader =
@@ -46,6 +111,13 @@ final class StackingConfigurationSourceProvider implements ConfigurationSourcePr
         this.progressLogger = safeLogger(
                 Objects.requireNonNull(progressLogger, "progressLogger")
         );
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + cacheSize);
+        }
+        this.cache = cacheSize == 0 ? null
+                : CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        this.snapshots = snapshots;
+        this.metrics = new PipelineMetrics(accountMemory);
     }
 
     /**
@@ -54,23 +126,221 @@ final class StackingConfigurationSourceProvider implements ConfigurationSourcePr
      */
     @Override
     public InputStream open(String serverCommand) {
-        return tryOpen(serverCommand).orElseThrow(notFound(serverCommand));
+        return new ByteArrayInputStream(assembled(serverCommand).bytes());
+    }
+
+    /**
+     * Assembles the config, without serializing it.  Consumers that bind the config can use this directly,
+     * instead of parsing the result of {@link #open(String)}.
+     *
+     * @param serverCommand The argument to the {@link io.dropwizard.cli.ServerCommand server command}.
+     * @return The compiled config tree, not shared with anyone else
+     */
+    JsonNode tree(String serverCommand) {
+        return assembled(serverCommand).tree();
+    }
+
+    /**
+     * Starts the pipeline on a background thread, so loading and parsing overlap with the rest of bootstrap.  The
+     * next {@link #open(String)} or {@link #tree(String)} for the argument joins the run, and gets its result or
+     * fails with the same exception as a synchronous run.  Repeated calls for the argument before then share the
+     * run.
+     *
+     * @param serverCommand The argument to the {@link io.dropwizard.cli.ServerCommand server command}.
+     * @return The compiled config tree, which is shared, and must not be modified
+     */
+    CompletableFuture<JsonNode> openAsync(String serverCommand) {
+        String key = cmd(serverCommand).orElseThrow(notFound(serverCommand));
+        return preassembled.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(
+                () -> flight(key, serverCommand),
+                runnable -> PREASSEMBLY_THREADS.newThread(runnable).start())
+        ).thenApply(Assembled::sharedTree);
+    }
+
+    /**
+     * @return Metrics of the pipeline runs
+     */
+    PipelineMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The last server command argument a config was assembled for, if any
+     */
+    Optional<String> lastServerCommand() {
+        return Optional.ofNullable(last).map(assembled -> assembled.serverCommand);
+    }
+
+    /**
+     * @return The config last assembled, if any, which is shared, and must not be modified
+     */
+    Optional<JsonNode> lastTree() {
+        return Optional.ofNullable(last).map(Assembled::sharedTree);
+    }
+
+    /**
+     * The config last assembled, if it was for the argument, without running the pipeline again.
+     *
+     * @param serverCommand The argument to the {@link io.dropwizard.cli.ServerCommand server command}.
+     * @param loaded        Told about the layers that were loaded for it
+     * @return The compiled config tree, which is shared, and must not be modified, or empty if the last config was
+     * assembled for another argument, or none was
+     */
+    Optional<JsonNode> last(String serverCommand, Consumer<Collection<LoadedData>> loaded) {
+        Assembled last = this.last;
+        if (last == null || !last.serverCommand.equals(serverCommand)) {
+            return Optional.empty();
+        }
+        loaded.accept(last.loaded);
+        return Optional.of(last.sharedTree());
+    }
+
+    /**
+     * Runs the pipeline afresh, bypassing the cache and any ongoing run, then caches the result.
+     *
+     * @param serverCommand The argument to the {@link io.dropwizard.cli.ServerCommand server command}.
+     * @param loaded        Told about the layers that were loaded
+     * @return The compiled config tree, which is shared, and must not be modified
+     */
+    JsonNode reload(String serverCommand, Consumer<Collection<LoadedData>> loaded) {
+        String key = cmd(serverCommand).orElseThrow(notFound(serverCommand));
+        Assembled assembled = tryAssemble(serverCommand).orElseThrow(notFound(serverCommand));
+        loaded.accept(assembled.loaded);
+        if (cache != null) {
+            cache.put(key, assembled);
+        }
+        last = assembled;
+        return assembled.sharedTree();
     }
 
-    private Optional<InputStream> tryOpen(String serverCommand) {
+    private Assembled assembled(String serverCommand) {
+        String key = cmd(serverCommand).orElseThrow(notFound(serverCommand));
+        CompletableFuture<Assembled> preassembly = preassembled.remove(key);
+        return preassembly == null ? flight(key, serverCommand) : join(preassembly);
+    }
+
+    private Assembled flight(String key, String serverCommand) {
+        Assembled cached = cached(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Assembled> flight = new CompletableFuture<>();
+        CompletableFuture<Assembled> ongoing = inFlight.putIfAbsent(key, flight);
+        if (ongoing != null) {
+            return join(ongoing);
+        }
+        try {
+            Assembled assembled = cached(key); // A previous flight may have landed since we looked
+            if (assembled == null) {
+                assembled = tryAssemble(serverCommand).orElseThrow(notFound(serverCommand));
+                if (cache != null) {
+                    cache.put(key, assembled);
+                }
+            }
+            last = assembled;
+            flight.complete(assembled);
+            return assembled;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private Assembled cached(String key) {
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    private static Assembled join(CompletableFuture<Assembled> ongoing) {
         try {
-            Optional<JsonNode> config = cmd(serverCommand)
-                    .map(configurationStacker::parse)
-                    .map(configurationLoader::load)
-                    .map(configurationAssembler::assemble)
-                    .map(configurationSubstitutor::substitute);
+            return ongoing.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : e;
+        }
+    }
+
+    private Optional<Assembled> tryAssemble(String serverCommand) {
+        Object event = PipelineEvents.beginAssembly();
+        AtomicReference<Collection<LoadedData>> layers = new AtomicReference<>();
+        Optional<JsonNode> config = Optional.empty();
+        try {
+            config = cmd(serverCommand)
+                    .map(cmd -> metrics.time(Stage.STACK, () -> configurationStacker.parse(cmd)))
+                    .map(stack -> metrics.time(Stage.LOAD, () -> configurationLoader.load(stack)))
+                    .map(loaded -> {
+                        metrics.loaded(loaded);
+                        layers.set(loaded);
+                        return loaded;
+                    })
+                    .map(loaded -> snapshots == null
+                            ? substitute(assemble(loaded), null)
+                            : snapshot(serverCommand, loaded));
+            config.ifPresent(metrics::assembled);
             config.ifPresent(this::logResult);
-            return config.map(this::stream);
+            metrics.memoryReport().ifPresent(report -> progressLogger.println(() -> report));
+            return config.map(tree -> new Assembled(serverCommand, tree, layers.get()));
         } catch (Exception e) {
             throw new IllegalStateException("Failed to load config from argument <" + serverCommand + ">", e);
+        } finally {
+            PipelineEvents.endAssembly(event, serverCommand, layers.get(), config.orElse(null));
+        }
+    }
+
+    private JsonNode snapshot(String serverCommand, Collection<LoadedData> loaded) {
+        String key = snapshots.key(serverCommand, loaded);
+        Optional<JsonNode> snapshot = snapshots.get(key, this::variable);
+        if (snapshot.isPresent()) {
+            return snapshot.get();
+        }
+        Map<String, String> variables = new TreeMap<>();
+        JsonNode config = substitute(assemble(loaded), variables::put);
+        snapshots.put(key, variables, config);
+        return config;
+    }
+
+    private JsonNode assemble(Collection<LoadedData> loaded) {
+        if (!metrics.accountsMemory()) {
+            return metrics.time(Stage.ASSEMBLE, () -> configurationAssembler.assemble(loaded));
+        }
+        JsonNode assembled = metrics.time(Stage.ASSEMBLE, () ->
+                configurationAssembler instanceof DefaultConfigurationAssembler
+                        ? ((DefaultConfigurationAssembler) configurationAssembler).assemble(loaded, metrics::parsed)
+                        : configurationAssembler.assemble(loaded));
+        metrics.retained(Structure.MERGED, assembled);
+        return assembled;
+    }
+
+    /**
+     * @param variables Told about variables looked up, or null
+     */
+    private JsonNode substitute(JsonNode assembled, BiConsumer<String, String> variables) {
+        if (!(configurationSubstitutor instanceof DefaultConfigurationSubstitutor)) {
+            return metrics.time(Stage.SUBSTITUTE, () -> configurationSubstitutor.substitute(assembled));
         }
+        DefaultConfigurationSubstitutor substitutor = (DefaultConfigurationSubstitutor) configurationSubstitutor;
+        SubstitutionStats stats = new SubstitutionStats();
+        JsonNode config = metrics.time(Stage.SUBSTITUTE, () -> substitutor.substitute(assembled, variables, stats));
+        metrics.substituted(stats);
+        return config;
     }
 
+    private String variable(String name) {
+        return configurationSubstitutor instanceof DefaultConfigurationSubstitutor
+                ? ((DefaultConfigurationSubstitutor) configurationSubstitutor).variable(name)
+                : null;
+    }
+
+    /**
+     * Each preassembly gets its own thread, as they are few and long-running.
+     */
+    private static final ThreadFactory PREASSEMBLY_THREADS = new ThreadFactoryBuilder()
+            .setNameFormat("configstack-preassembly-%d")
+            .setDaemon(true)
+            .build();
+
     private ProgressLogger safeLogger(ProgressLogger progressLogger) {
         return info -> {
             try {
@@ -107,7 +377,7 @@ final class StackingConfigurationSourceProvider implements ConfigurationSourcePr
         }
     }
 
-    private InputStream stream(JsonNode node) {
+    private byte[] serialize(JsonNode node) {
         ByteArrayOutputStream baos = null;
         try {
             baos = new ByteArrayOutputStream();
@@ -122,7 +392,45 @@ final class StackingConfigurationSourceProvider implements ConfigurationSourcePr
                 }
             }
         }
-        return new ByteArrayInputStream(baos.toByteArray());
+        return baos.toByteArray();
+    }
+
+    /**
+     * An assembled config, which is never modified.  Hands out copies, and its serialized form.  Keeps the layers
+     * it was assembled from, for watching them.
+     */
+    private final class Assembled {
+
+        private final String serverCommand;
+
+        private final JsonNode tree;
+
+        private final Collection<LoadedData> loaded;
+
+        private final Supplier<byte[]> bytes;
+
+        private Assembled(String serverCommand, JsonNode tree, Collection<LoadedData> loaded) {
+            this.serverCommand = serverCommand;
+            this.tree = tree;
+            this.loaded = loaded;
+            this.bytes = Suppliers.memoize(() -> {
+                byte[] bytes = serialize(tree);
+                metrics.serialized(bytes.length);
+                return bytes;
+            })::get;
+        }
+
+        private JsonNode tree() {
+            return tree.deepCopy();
+        }
+
+        private JsonNode sharedTree() {
+            return tree;
+        }
+
+        private byte[] bytes() {
+            return bytes.get();
+        }
     }
 
     @Override
@@ -0,0 +1,50 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counts placeholders and lookups during a substitution pass.  Not thread-safe.
+ */
+final class SubstitutionStats {
+
+    /**
+     * Where a key was found.
+     */
+    enum Source {
+
+        SYSTEM_PROPERTY, ENV, JSON_POINTER, FILE, VARIABLE_SOURCE, EXPRESSION, UNRESOLVED
+    }
+
+    private final Map<Source, Integer> lookups = new EnumMap<>(Source.class);
+
+    private int placeholders;
+
+    void placeholders(int count) {
+        placeholders += count;
+    }
+
+    void lookup(Source source) {
+        lookups.merge(source, 1, Integer::sum);
+    }
+
+    /**
+     * @return Number of placeholders in substituted values
+     */
+    int getPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * @param source Source
+     * @return Number of distinct keys found in the source
+     */
+    int getLookups(Source source) {
+        return lookups.getOrDefault(source, 0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[placeholders=" + placeholders + " lookups=" + lookups + "]";
+    }
+}
@@ -0,0 +1,211 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A string compiled into literal and {@code ${key||default}} placeholder segments, so it can be rendered
+ * without rescanning.  Keys and defaults may themselves contain placeholders.  The default is split off at the
+ * last {@code ||} outside any nested placeholder.  A {@code '} right before {@code ${} escapes it, leaving a
+ * literal {@code ${}.  An unterminated {@code ${} is literal text.
+ */
+final class SubstitutionTemplate {
+
+    static final String PREFIX = "${";
+
+    private static final char SUFFIX = '}';
+
+    private static final String OR = "||";
+
+    private static final char ESCAPE = '\'';
+
+    private final String source;
+
+    private final List<Object> segments;
+
+    private SubstitutionTemplate(String source, List<Object> segments) {
+        this.source = source;
+        this.segments = segments;
+    }
+
+    /**
+     * @param source Source string
+     * @return True if the source may contain placeholders, or escapes
+     */
+    static boolean hasPlaceholders(String source) {
+        return source.contains(PREFIX);
+    }
+
+    static SubstitutionTemplate compile(String source) {
+        if (!hasPlaceholders(source)) {
+            return new SubstitutionTemplate(source, Collections.emptyList());
+        }
+        List<Object> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int length = source.length();
+        int pos = 0;
+        while (pos < length) {
+            int start = source.indexOf(PREFIX, pos);
+            if (start < 0) {
+                literal.append(source, pos, length);
+                break;
+            }
+            if (start > pos && source.charAt(start - 1) == ESCAPE) {
+                literal.append(source, pos, start - 1).append(PREFIX);
+                pos = start + PREFIX.length();
+                continue;
+            }
+            int end = closing(source, start + PREFIX.length());
+            if (end < 0) {
+                literal.append(source, pos, length);
+                break;
+            }
+            literal.append(source, pos, start);
+            if (literal.length() > 0) {
+                segments.add(literal.toString());
+                literal.setLength(0);
+            }
+            segments.add(placeholder(source.substring(start + PREFIX.length(), end)));
+            pos = end + 1;
+        }
+        if (literal.length() > 0) {
+            segments.add(literal.toString());
+        }
+        return new SubstitutionTemplate(source, segments);
+    }
+
+    /**
+     * @return True if there are no placeholders, i.e. the template renders to its source
+     */
+    boolean isConstant() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * @return Number of placeholders, not counting those nested in keys or defaults
+     */
+    int placeholders() {
+        int placeholders = 0;
+        for (Object segment : segments) {
+            if (segment instanceof Placeholder) {
+                placeholders++;
+            }
+        }
+        return placeholders;
+    }
+
+    /**
+     * @return Keys that are looked up whenever the template is rendered, i.e. constant keys outside defaults
+     */
+    List<String> references() {
+        List<String> references = new ArrayList<>();
+        for (Object segment : segments) {
+            if (segment instanceof Placeholder) {
+                Placeholder placeholder = (Placeholder) segment;
+                if (placeholder.key.isConstant()) {
+                    references.add(placeholder.key.source);
+                } else {
+                    references.addAll(placeholder.key.references());
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * @param resolver Resolves a key to its value, or null if unknown
+     * @return Rendered string
+     * @throws IllegalArgumentException If a key is unknown and has no default
+     */
+    String render(Function<String, String> resolver) {
+        if (isConstant()) {
+            return source;
+        }
+        if (segments.size() == 1 && segments.get(0) instanceof String) {
+            return (String) segments.get(0);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object segment : segments) {
+            if (segment instanceof Placeholder) {
+                sb.append(((Placeholder) segment).render(resolver));
+            } else {
+                sb.append((String) segment);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Placeholder placeholder(String body) {
+        int or = lastOr(body);
+        return or < 0
+                ? new Placeholder(body, compile(body), null)
+                : new Placeholder(body, compile(body.substring(0, or)), compile(body.substring(or + OR.length())));
+    }
+
+    /**
+     * @return Index of the suffix closing a placeholder whose body starts at {@code from}, or -1
+     */
+    private static int closing(String source, int from) {
+        int depth = 1;
+        for (int i = from; i < source.length(); i++) {
+            if (source.startsWith(PREFIX, i)) {
+                depth++;
+                i++;
+            } else if (source.charAt(i) == SUFFIX && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastOr(String body) {
+        int depth = 0;
+        int last = -1;
+        for (int i = 0; i < body.length(); i++) {
+            if (body.startsWith(PREFIX, i)) {
+                depth++;
+                i++;
+            } else if (body.charAt(i) == SUFFIX) {
+                depth--;
+            } else if (depth == 0 && body.startsWith(OR, i)) {
+                last = i;
+                i++;
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + source + "]";
+    }
+
+    private static final class Placeholder {
+
+        private final String body;
+
+        private final SubstitutionTemplate key;
+
+        private final SubstitutionTemplate defaultValue;
+
+        private Placeholder(String body, SubstitutionTemplate key, SubstitutionTemplate defaultValue) {
+            this.body = body;
+            this.key = key;
+            this.defaultValue = defaultValue;
+        }
+
+        private String render(Function<String, String> resolver) {
+            String resolved = resolver.apply(key.render(resolver));
+            if (resolved != null) {
+                return resolved;
+            }
+            if (defaultValue == null) {
+                throw new IllegalArgumentException
+                        ("Unknown variable ref '" + body + "': Unknown system property, env variable or JSON node, no default was specified");
+            }
+            return defaultValue.render(resolver);
+        }
+    }
+}
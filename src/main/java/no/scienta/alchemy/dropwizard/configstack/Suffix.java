@@ -2,14 +2,26 @@ package no.scienta.alchemy.dropwizard.configstack;
 
 import java.util.Arrays;
 
+/**
+ * Supported config formats, in the order candidates are probed.  {@link #SMILE} and {@link #CBOR} are binary
+ * formats, for machine-generated layers.
+ */
 enum Suffix {
 
-    JSON, YAML;
+    JSON, YAML, SMILE, CBOR;
 
     static boolean anySuffix(String path) {
         return Arrays.stream(values()).anyMatch(suffix -> suffix.isSuffixed(path));
     }
 
+    /**
+     * @param path Path
+     * @return The path's suffix, or {@link #JSON} if it has none
+     */
+    static Suffix of(String path) {
+        return Arrays.stream(values()).filter(suffix -> suffix.isSuffixed(path)).findFirst().orElse(JSON);
+    }
+
     boolean isSuffixed(String path) {
         return path != null && path.toLowerCase().endsWith("." + name().toLowerCase());
     }
@@ -0,0 +1,41 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A source of values for prefixed placeholders, like {@code ${vault:db/password}} for a source registered with
+ * {@link ConfigStackBundler#addVariableSource(String, VariableSource) prefix} {@code vault}.  Prefixed keys go
+ * straight to their source, without looking in system properties, env variables or the config.
+ * <p>
+ * In each substitution pass, the keys found in the config are {@link #resolveAll(Collection) resolved} in one
+ * batch before anything is substituted, and each answer is remembered for the rest of the pass.  Keys only
+ * found while substituting, e.g. in defaults, are {@link #resolve(String) resolved} one by one.
+ */
+@FunctionalInterface
+public interface VariableSource {
+
+    /**
+     * @param key Key, without the prefix
+     * @return Its value, or null if unknown
+     */
+    String resolve(String key);
+
+    /**
+     * Resolves all keys of a pass at once, e.g. in a single round trip.  By default, resolves each key in turn.
+     *
+     * @param keys Keys, without the prefix
+     * @return Values of the known keys
+     */
+    default Map<String, String> resolveAll(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = resolve(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,101 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.server.ServerFactory;
+import io.dropwizard.server.SimpleServerFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AutoLayerTest {
+
+    private static final long GB = 1024L * 1024L * 1024L;
+
+    @Test
+    public void testSmallContainer() {
+        AutoLayer.Derivation derivation = autoLayer(ArrayStrategy.OVERLAY)
+                .derive(new HostResources(1, GB / 4, GB / 2, 1024L), JsonUtils.objectNode(), Collections.emptyList());
+        JsonNode layer = derivation.getLayer();
+
+        assertThat(layer.at("/server/maxThreads").asInt(), is(64));
+        assertThat(layer.at("/server/minThreads").asInt(), is(8));
+        assertThat(layer.at("/server/maxQueuedRequests").asInt(), is(256));
+        assertThat(layer.at("/server/applicationConnectors/0/acceptorThreads").asInt(), is(1));
+        assertThat(layer.at("/server/applicationConnectors/0/selectorThreads").asInt(), is(1));
+        assertThat(layer.at("/logging/appenders/0/type").asText(), is("console"));
+        assertThat(layer.at("/logging/appenders/0/queueSize").asInt(), is(256));
+        assertTrue(derivation.getReasons().contains("/server/maxThreads = 64: cpus * 32, at least 64"));
+    }
+
+    @Test
+    public void testLargeHost() {
+        ObjectNode base = JsonUtils.objectNode();
+        base.putObject("server").putArray("applicationConnectors")
+                .add(JsonUtils.objectNode())
+                .add(JsonUtils.objectNode());
+        JsonNode layer = autoLayer(ArrayStrategy.OVERLAY)
+                .derive(new HostResources(64, 8 * GB, 64 * GB, 1000L), base, Collections.emptyList()).getLayer();
+
+        assertThat(layer.at("/server/maxThreads").asInt(), is(250));
+        assertThat(layer.at("/server/maxQueuedRequests").asInt(), is(500));
+        assertThat(layer.at("/server/applicationConnectors").size(), is(2));
+        assertTrue(layer.at("/server/applicationConnectors/1/type").isMissingNode());
+        assertThat(layer.at("/server/applicationConnectors/1/acceptorThreads").asInt(), is(4));
+        assertThat(layer.at("/server/applicationConnectors/1/selectorThreads").asInt(), is(16));
+        assertThat(layer.at("/logging/appenders/0/queueSize").asInt(), is(8192));
+    }
+
+    @Test
+    public void testSimpleServerAndReplacedArrays() {
+        ObjectNode base = JsonUtils.objectNode();
+        base.putObject("server").put("type", "simple");
+        AutoLayer.Derivation derivation = autoLayer(ArrayStrategy.REPLACE)
+                .derive(new HostResources(4, GB, GB, -1L), base, Collections.emptyList());
+        JsonNode layer = derivation.getLayer();
+
+        assertThat(layer.at("/server/connector/type").asText(), is("http"));
+        assertThat(layer.at("/server/connector/selectorThreads").asInt(), is(2));
+        assertTrue(layer.at("/server/applicationConnectors").isMissingNode());
+        assertTrue(layer.at("/logging").isMissingNode());
+        assertTrue(derivation.getReasons().stream().anyMatch(reason -> reason.startsWith("Appenders left alone")));
+    }
+
+    @Test
+    public void testSimpleServerAbove() throws Exception {
+        AutoLayer autoLayer = new AutoLayer(() -> new HostResources(4, GB, GB, 4096L), ArrayStrategy.OVERLAY, info -> {
+        });
+        JsonNode config = new DefaultConfigurationAssembler(
+                new ObjectMapper(), ArrayStrategy.OVERLAY, null, false, autoLayer
+        ).assemble(Arrays.asList(
+                json("App.json", "{\"server\": {\"maxThreads\": 32}}"),
+                autoLayer.loaded(),
+                json("App-x.json", "{\"server\": {\"type\": \"simple\"}}")));
+
+        assertTrue(config.at("/server/applicationConnectors").isMissingNode());
+        assertThat(config.at("/server/connector/selectorThreads").asInt(), is(2));
+        ServerFactory server = Jackson.newObjectMapper()
+                .enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .treeToValue(config.get("server"), ServerFactory.class);
+        assertTrue(server instanceof SimpleServerFactory);
+    }
+
+    private static LoadedData json(String path, String json) {
+        return LoadedData.create(path, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static AutoLayer autoLayer(ArrayStrategy arrayStrategy) {
+        return new AutoLayer(() -> null, arrayStrategy, info -> {
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class ClasspathResourceIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFirstRootWins() throws IOException {
+        File dir = folder.newFolder("classes");
+        write(dir, "a.json", "dir");
+        write(dir, "sub/b.yaml", "b: 1");
+        write(dir, "c.txt", "not config");
+        File jar = jar("lib.jar", "a.json", "jar", "d.json", "{}");
+
+        ClasspathResourceIndex index = index(dir, jar);
+
+        assertThat(read(index.find("a.json")), is("dir"));
+        assertThat(read(index.find("d.json")), is("{}"));
+        assertThat(read(index.find("sub/b.yaml")), is("b: 1"));
+        assertNull(index.find("c.txt"));
+        assertNull(index.find("e.json"));
+        assertThat(index.size(), is(3));
+    }
+
+    @Test
+    public void testGeneratedIndex() throws IOException {
+        File dir = folder.newFolder("classes");
+        write(dir, "a.json", "{}");
+        ClasspathResourceIndexer.write(dir.toPath());
+        write(dir, "b.json", "{}");
+
+        ClasspathResourceIndex index = index(dir);
+
+        assertNotNull(index.find("a.json"));
+        assertNull(index.find("b.json"));
+    }
+
+    @Test
+    public void testIndexedProvider() throws IOException {
+        File jar = jar("lib.jar", "d.json", "{}");
+        ClasspathFallbackProvider provider = new ClasspathFallbackProvider(
+                path -> {
+                    throw new FileNotFoundException(path);
+                },
+                new URLClassLoader(new URL[]{jar.toURI().toURL()}, null),
+                true);
+
+        assertThat(new String(ByteStreams.toByteArray(provider.open("d.json")), StandardCharsets.UTF_8), is("{}"));
+        assertNull(provider.open("e.json"));
+    }
+
+    @Test
+    public void testNoIndexForOpaqueClassLoader() {
+        assertFalse(ClasspathResourceIndex.forClassLoader(new ClassLoader(null) {
+        }).isPresent());
+    }
+
+    private ClasspathResourceIndex index(File... roots) throws IOException {
+        URL[] urls = new URL[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            urls[i] = roots[i].toURI().toURL();
+        }
+        return ClasspathResourceIndex.forClassLoader(new URLClassLoader(urls, null))
+                .orElseThrow(() -> new AssertionError("No index"));
+    }
+
+    private File jar(String name, String... entries) throws IOException {
+        File jar = new File(folder.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new JarEntry(entries[i]));
+                out.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static void write(File dir, String name, String content) throws IOException {
+        File file = new File(dir, name);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(URL url) throws IOException {
+        assertNotNull(url);
+        try (InputStream stream = url.openStream()) {
+            return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.*;
+
+public class ConfigHandleTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testBind() throws IOException {
+        ConfigHandle<Limits> handle = new ConfigHandle<>("/server/limits", Limits.class);
+        try {
+            fail(handle.get() + " not expected");
+        } catch (IllegalStateException ignore) {
+        }
+
+        assertTrue(handle.bind(read("{\"server\": {\"limits\": {\"rate\": 10}, \"port\": 8080}}"), objectMapper));
+        Limits limits = handle.get();
+        assertThat(limits.rate, is(10));
+
+        assertFalse(handle.bind(read("{\"server\": {\"limits\": {\"rate\": 10}, \"port\": 8081}}"), objectMapper));
+        assertThat(handle.get(), sameInstance(limits));
+
+        assertTrue(handle.bind(read("{\"server\": {\"limits\": {\"rate\": 20}}}"), objectMapper));
+        assertThat(handle.get().rate, is(20));
+    }
+
+    @Test
+    public void testBindFailure() throws IOException {
+        ConfigHandle<Limits> handle = new ConfigHandle<>("/limits", Limits.class);
+        handle.bind(read("{\"limits\": {\"rate\": 10}}"), objectMapper);
+        for (String json : new String[]{"{}", "{\"limits\": {\"rate\": \"fast\"}}"}) {
+            try {
+                handle.bind(read(json), objectMapper);
+                fail(json + " should not bind");
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+        assertThat(handle.get().rate, is(10));
+    }
+
+    private JsonNode read(String json) throws IOException {
+        return objectMapper.readTree(json);
+    }
+
+    public static final class Limits {
+
+        public int rate;
+    }
+}
@@ -0,0 +1,139 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class ConfigReloaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReload() throws Exception {
+        write("App.json", "{\"foo\": 1}");
+        BlockingQueue<JsonNode> published = new LinkedBlockingQueue<>();
+        MetricRegistry metrics = new MetricRegistry();
+        ConfigReloader reloader = new ConfigReloader(
+                FolderStack.provider(folder.getRoot(), configuration -> configuration),
+                "prod", 50L, 50L, (tree, changes) -> published.add(tree), metrics, info -> {
+        });
+        reloader.start();
+        try {
+            assertThat(published.take().path("foo").asInt(), is(1));
+
+            write("App.json", "{\"foo\": 2}");
+            assertThat(published.poll(10, TimeUnit.SECONDS).path("foo").asInt(), is(2));
+
+            write("App.json", "{\"foo\": ");
+            for (int i = 0; i < 100 && metrics.counter(ConfigReloader.FAILURES).getCount() == 0; i++) {
+                Thread.sleep(100);
+            }
+            assertThat(metrics.counter(ConfigReloader.FAILURES).getCount(), is(1L));
+
+            write("App.json", "{\"foo\": 2}");
+            write("App-prod.json", "{\"bar\": 3}");
+            JsonNode reloaded = published.poll(10, TimeUnit.SECONDS);
+            assertThat(reloaded.path("foo").asInt(), is(2));
+            assertThat(reloaded.path("bar").asInt(), is(3));
+
+            assertNull(published.poll(500, TimeUnit.MILLISECONDS));
+            assertThat(metrics.counter(ConfigReloader.PUBLISHED).getCount(), is(3L));
+            assertTrue(metrics.timer(ConfigReloader.LATENCY).getCount() >= 4L);
+        } finally {
+            reloader.stop();
+        }
+    }
+
+    @Test
+    public void testBaselineAndRestart() throws Exception {
+        write("App.json", "{\"foo\": 1}");
+        StackingConfigurationSourceProvider provider =
+                FolderStack.provider(folder.getRoot(), configuration -> configuration);
+        assertThat(provider.tree("prod").path("foo").asInt(), is(1));
+        BlockingQueue<JsonNode> published = new LinkedBlockingQueue<>();
+        MetricRegistry metrics = new MetricRegistry();
+        ConfigReloader reloader = new ConfigReloader(
+                provider, "prod", 50L, 50L, (tree, changes) -> published.add(tree), metrics, info -> {
+        });
+        reloader.start();
+        try {
+            assertThat(metrics.timer(ConfigReloader.LATENCY).getCount(), is(0L));
+            write("App.json", "{\"foo\": 2}");
+            assertThat(published.poll(10, TimeUnit.SECONDS).path("foo").asInt(), is(2));
+
+            reloader.stop();
+            reloader.start();
+            write("App.json", "{\"foo\": 3}");
+            assertThat(published.poll(10, TimeUnit.SECONDS).path("foo").asInt(), is(3));
+            assertNull(published.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            reloader.stop();
+        }
+    }
+
+    @Test
+    public void testReloadOnSymlinkSwap() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write("..2020_01/App.json", "{\"foo\": 1}");
+        Files.createSymbolicLink(root.resolve("..data"), Paths.get("..2020_01"));
+        Files.createSymbolicLink(root.resolve("App.json"), Paths.get("..data/App.json"));
+        BlockingQueue<JsonNode> published = new LinkedBlockingQueue<>();
+        ConfigReloader reloader = new ConfigReloader(
+                FolderStack.provider(folder.getRoot(), configuration -> configuration),
+                "prod", 50L, 50L, (tree, changes) -> published.add(tree), new MetricRegistry(), info -> {
+        });
+        reloader.start();
+        try {
+            assertThat(published.take().path("foo").asInt(), is(1));
+
+            write("..2020_02/App.json", "{\"foo\": 2}");
+            Files.createSymbolicLink(root.resolve("..data_tmp"), Paths.get("..2020_02"));
+            Files.move(root.resolve("..data_tmp"), root.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+            assertThat(published.poll(10, TimeUnit.SECONDS).path("foo").asInt(), is(2));
+        } finally {
+            reloader.stop();
+        }
+    }
+
+    @Test
+    public void testReloadWithDirectoryIndex() throws Exception {
+        write("App.json", "{\"foo\": 1}");
+        IndexedFileConfigurationSourceProvider indexed = new IndexedFileConfigurationSourceProvider();
+        BlockingQueue<JsonNode> published = new LinkedBlockingQueue<>();
+        ConfigReloader reloader = new ConfigReloader(
+                FolderStack.provider(folder.getRoot(), indexed, configuration -> configuration),
+                "prod", 50L, 50L, (tree, changes) -> published.add(tree), new MetricRegistry(), info -> {
+        }, indexed::invalidate);
+        reloader.start();
+        try {
+            assertThat(published.take().path("foo").asInt(), is(1));
+
+            write("App-prod.json", "{\"bar\": 2}");
+            assertThat(published.poll(10, TimeUnit.SECONDS).path("bar").asInt(), is(2));
+        } finally {
+            reloader.stop();
+        }
+    }
+
+    private void write(String name, String json) throws Exception {
+        Path path = new File(folder.getRoot(), name).toPath();
+        Files.createDirectories(path.getParent());
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
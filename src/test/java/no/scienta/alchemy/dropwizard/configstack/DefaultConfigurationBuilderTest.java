@@ -2,17 +2,29 @@ package no.scienta.alchemy.dropwizard.configstack;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class DefaultConfigurationBuilderTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testBuild() {
         JsonNode node = testBuild("logging.json", "serverlogging.json");
@@ -21,6 +33,118 @@ public class DefaultConfigurationBuilderTest {
         assertThat(appenders.get(1).get("type").asText(), is("file"));
     }
 
+    @Test
+    public void testLayerCache() {
+        List<String> log = new ArrayList<>();
+        DefaultConfigurationAssembler assembler = new DefaultConfigurationAssembler(
+                new ObjectMapper(),
+                ArrayStrategy.OVERLAY,
+                new LayerCache(folder.getRoot().toPath(), 8, info -> log.add(info.get())));
+
+        JsonNode parsed = assembler.assemble(yaml("foo:\n  bar: [1, 2]\n"));
+        JsonNode cached = assembler.assemble(yaml("foo:\n  bar: [1, 2]\n"));
+        JsonNode changed = assembler.assemble(yaml("foo:\n  bar: [3]\n"));
+
+        assertThat(cached, is(parsed));
+        assertThat(changed.get("foo").get("bar").size(), is(1));
+        assertThat(log, is(Arrays.asList(
+                "Layer cache miss: app.yaml",
+                "Layer cache hit: app.yaml",
+                "Layer cache miss: app.yaml")));
+        assertThat(folder.getRoot().list().length, is(2));
+    }
+
+    @Test
+    public void testIncremental() {
+        List<String> log = new ArrayList<>();
+        ObjectMapper objectMapper = new ObjectMapper();
+        DefaultConfigurationAssembler assembler = new DefaultConfigurationAssembler(
+                objectMapper,
+                ArrayStrategy.OVERLAY,
+                new LayerCache(folder.getRoot().toPath(), 8, info -> log.add(info.get())),
+                true,
+                null);
+        List<LoadedData> layers = Arrays.asList(
+                yaml("a.yaml", "foo:\n  bar: [1, 2]\n  zot: a\n"),
+                yaml("b.yaml", "foo:\n  bar: [3]\n"),
+                yaml("c.yaml", "foo:\n  zip: c\n"));
+
+        JsonNode assembled = assembler.assemble(layers);
+        log.clear();
+        assertThat(assembler.assemble(layers), sameInstance(assembled));
+        assertThat(log, is(Collections.emptyList()));
+
+        List<LoadedData> changed =
+                Arrays.asList(layers.get(0), yaml("b.yaml", "foo:\n  bar: [4, 5, 6]\n"), layers.get(2));
+        JsonNode reassembled = assembler.assemble(changed);
+        assertThat(log, is(Collections.singletonList("Layer cache miss: b.yaml")));
+        assertThat(reassembled, is(new DefaultConfigurationAssembler(objectMapper, ArrayStrategy.OVERLAY).assemble(changed)));
+        assertThat(reassembled.toString(), is("{\"foo\":{\"bar\":[4,5,6],\"zot\":\"a\",\"zip\":\"c\"}}"));
+        assertThat(reassembled.get("foo").get("zot"), sameInstance(assembled.get("foo").get("zot")));
+    }
+
+    @Test
+    public void testIncrementalAutoLayer() {
+        List<String> log = new ArrayList<>();
+        AutoLayer autoLayer = new AutoLayer(
+                () -> new HostResources(4, 1L << 30, 4L << 30, 4096L),
+                ArrayStrategy.OVERLAY,
+                info -> log.add(info.get()));
+        DefaultConfigurationAssembler assembler = new DefaultConfigurationAssembler(
+                new ObjectMapper(), ArrayStrategy.OVERLAY, null, true, autoLayer);
+        LoadedData base = yaml("a.yaml", "server:\n  maxThreads: 10\n");
+
+        JsonNode assembled = assembler.assemble(Arrays.asList(base, autoLayer.loaded(), yaml("c.yaml", "foo: 1\n")));
+        JsonNode changed = assembler.assemble(Arrays.asList(base, autoLayer.loaded(), yaml("c.yaml", "foo: 2\n")));
+
+        assertThat(assembled.at("/server/maxThreads").asInt(), is(128));
+        assertThat(assembled.at("/server/applicationConnectors/0/acceptorThreads").asInt(), is(1));
+        assertThat(changed.at("/foo").asInt(), is(2));
+        assertThat(log.size(), is(1));
+
+        JsonNode simple = assembler.assemble(
+                Arrays.asList(base, autoLayer.loaded(), yaml("c.yaml", "server:\n  type: simple\n")));
+
+        assertThat(log.size(), is(2));
+        assertThat(simple.at("/server/applicationConnectors").isMissingNode(), is(true));
+        assertThat(simple.at("/server/connector/acceptorThreads").asInt(), is(1));
+    }
+
+    @Test
+    public void testIncrementalWithEmptyLayer() {
+        DefaultConfigurationAssembler assembler =
+                new DefaultConfigurationAssembler(new ObjectMapper(), ArrayStrategy.OVERLAY, null, true, null);
+        LoadedData empty = yaml("b.yaml", "");
+
+        assembler.assemble(Arrays.asList(yaml("a.yaml", "foo: 1\n"), empty));
+        JsonNode reassembled = assembler.assemble(Arrays.asList(yaml("a.yaml", "foo: 2\n"), empty));
+
+        assertThat(reassembled.toString(), is("{\"foo\":2}"));
+    }
+
+    @Test
+    public void testBinaryLayers() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(
+                objectMapper.readTree("{\"foo\": {\"bar\": 1, \"zot\": 2}}"));
+        byte[] cbor = new ObjectMapper(new CBORFactory()).writeValueAsBytes(
+                objectMapper.readTree("{\"foo\": {\"zot\": 3}}"));
+
+        JsonNode node = new DefaultConfigurationAssembler(objectMapper, ArrayStrategy.OVERLAY).assemble(Arrays.asList(
+                LoadedData.create("app.smile", new ByteArrayInputStream(smile)),
+                LoadedData.create("app-prod.cbor", new ByteArrayInputStream(cbor))));
+
+        assertThat(node, is(objectMapper.readTree("{\"foo\": {\"bar\": 1, \"zot\": 3}}")));
+    }
+
+    private static List<LoadedData> yaml(String yaml) {
+        return Collections.singletonList(yaml("app.yaml", yaml));
+    }
+
+    private static LoadedData yaml(String path, String yaml) {
+        return LoadedData.create(path, new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+    }
+
     private JsonNode testBuild(String... paths) {
         DefaultConfigurationAssembler combiner =
                 new DefaultConfigurationAssembler(new ObjectMapper(), ArrayStrategy.OVERLAY);
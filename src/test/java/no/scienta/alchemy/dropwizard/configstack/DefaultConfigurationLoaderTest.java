@@ -1,5 +1,7 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import no.scienta.alchemy.dropwizard.configstack.test.MockedConfigurationSourceProvider;
 import no.scienta.alchemy.dropwizard.configstack.app.StackAppConfiguration;
 import org.hamcrest.BaseMatcher;
@@ -10,12 +12,15 @@ import org.junit.Test;
 
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static no.scienta.alchemy.dropwizard.configstack.Suffix.JSON;
 import static no.scienta.alchemy.dropwizard.configstack.Suffix.YAML;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class DefaultConfigurationLoaderTest {
 
@@ -167,6 +172,123 @@ public class DefaultConfigurationLoaderTest {
         ));
     }
 
+    @Test
+    public void testConcurrentLoadingKeepsOrder() {
+        String[] paths = {
+                "logging.yaml",
+                "serverlogging.json",
+                base(JSON),
+                "foo.json",
+                stacked("prod", JSON),
+                "bar.json",
+                stacked("prod-cloud", YAML)
+        };
+        MockedConfigurationSourceProvider mocked = new MockedConfigurationSourceProvider(paths);
+        ConfigurationLoader resolver = new DefaultConfigurationLoader(
+                path -> {
+                    try {
+                        Thread.sleep(random.nextInt(20));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return mocked.open(path);
+                },
+                new BasenameVariationsResourceResolver(StackAppConfiguration.class),
+                Arrays.asList("logging", "serverlogging", "notfound"),
+                supplier -> progress.add(supplier.get()),
+                4);
+        for (int i = 0; i < 5; i++) {
+            assertThat(resolver.load("foo", "prod", "bar", "prod-cloud"), are(paths));
+        }
+    }
+
+    @Test
+    public void testConcurrentLoadingKeepsThreads() {
+        MockedConfigurationSourceProvider mocked = new MockedConfigurationSourceProvider(base(JSON), "foo.json");
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        DefaultConfigurationLoader resolver = new DefaultConfigurationLoader(
+                path -> {
+                    threads.add(Thread.currentThread());
+                    return mocked.open(path);
+                },
+                new BasenameVariationsResourceResolver(StackAppConfiguration.class),
+                null,
+                supplier -> progress.add(supplier.get()),
+                2);
+        for (int i = 0; i < 5; i++) {
+            assertThat(resolver.load("foo"), are(base(JSON), "foo.json"));
+        }
+        assertTrue(threads.size() <= 2);
+
+        resolver.close();
+        for (Thread thread : threads) {
+            assertTrue(awaitDeath(thread));
+        }
+        assertThat(resolver.load("foo"), are(base(JSON), "foo.json"));
+        resolver.close();
+    }
+
+    private static boolean awaitDeath(Thread thread) {
+        try {
+            thread.join(10_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    @Test
+    public void testAutoLayer() throws Exception {
+        ConfigurationLoader resolver = new DefaultConfigurationLoader(
+                new MockedConfigurationSourceProvider("serverlogging.json", base(JSON), stacked("prod", JSON)),
+                new BasenameVariationsResourceResolver(StackAppConfiguration.class),
+                Collections.singletonList("serverlogging"),
+                supplier -> progress.add(supplier.get()),
+                1,
+                autoLayer());
+
+        List<LoadedData> loadables = new ArrayList<>(resolver.load("auto", "prod"));
+
+        assertThat(loadables, are(
+                "serverlogging.json",
+                base(JSON),
+                AutoLayer.PATH,
+                stacked("prod", JSON)));
+        JsonNode auto = new ObjectMapper().readTree(loadables.get(2).getStream());
+        assertEquals(8, auto.get("cpus").asInt());
+        assertEquals(4096L, auto.get("fds").asLong());
+    }
+
+    @Test
+    public void testAutoElementWithoutAutoLayer() {
+        Collection<LoadedData> loadables = resolver(
+                base(JSON),
+                stacked("auto", JSON)
+        ).load("auto");
+        assertThat(loadables, are(
+                base(JSON),
+                stacked("auto", JSON)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAutoLayerWithAutoResource() {
+        new DefaultConfigurationLoader(
+                new MockedConfigurationSourceProvider(base(JSON), stacked("auto", YAML)),
+                new BasenameVariationsResourceResolver(StackAppConfiguration.class),
+                null,
+                supplier -> progress.add(supplier.get()),
+                1,
+                autoLayer()
+        ).load("auto");
+    }
+
+    private AutoLayer autoLayer() {
+        return new AutoLayer(
+                () -> new HostResources(8, 1L << 30, 4L << 30, 4096L),
+                ArrayStrategy.OVERLAY,
+                supplier -> progress.add(supplier.get()));
+    }
+
     private String[] commonConfigs(String... paths) {
         return paths;
     }
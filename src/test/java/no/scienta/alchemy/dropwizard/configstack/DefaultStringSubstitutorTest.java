@@ -1,14 +1,24 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class DefaultStringSubstitutorTest {
 
@@ -41,11 +51,101 @@ public class DefaultStringSubstitutorTest {
                 is("This is foo barbarryarbarbarryar"));
     }
 
+    @Test
+    public void testPlainValue() {
+        String value = "No references here";
+        assertSame(value, substitutor().substitute(value));
+    }
+
+    @Test
+    public void testNestedDefaults() {
+        assertThat(
+                substitutor().substitute("${nope||${nada||${foo}}}-${nope||a||b}"),
+                is("bar-b"));
+    }
+
+    @Test
+    public void testNestedKeys() {
+        assertThat(
+                substitutor().substitute("${${key}}"),
+                is("bar"));
+    }
+
+    @Test
+    public void testEscape() {
+        assertThat(
+                substitutor().substitute("'${foo} is ${foo}, '${unterminated"),
+                is("${foo} is bar, ${unterminated"));
+    }
+
+    @Test
+    public void testCycle() {
+        try {
+            fail(substitutor().substitute("${cycle1}") + " not expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().contains("cycle1->cycle2->cycle1"), is(true));
+        }
+    }
+
+    @Test
+    public void testUnknown() {
+        try {
+            fail(substitutor().substitute("${nope}") + " not expected");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void testPrefixes() {
+        assertThat(
+                substitutor().substitute("${sys:foo}-${env:foo2}-${env:foo||none}-${ptr:/sub/sea}"),
+                is("bar-barryar-none-oil"));
+    }
+
+    @Test
+    public void testVariableSources() {
+        ObjectNode node = JsonUtils.objectNode();
+        node.put("user", "${vault:db/user}");
+        node.put("password", "${vault:db/password}");
+        node.put("url", "jdbc:${vault:db/host||${vault:db/fallback}}/${ptr:/user}");
+        List<Set<String>> batches = new ArrayList<>();
+        Map<String, String> vault = new HashMap<>();
+        vault.put("db/user", "scott");
+        vault.put("db/password", "tiger");
+        vault.put("db/fallback", "localhost");
+        VariableSource source = new VariableSource() {
+            @Override
+            public String resolve(String key) {
+                return vault.get(key);
+            }
+
+            @Override
+            public Map<String, String> resolveAll(Collection<String> keys) {
+                batches.add(new HashSet<>(keys));
+                return VariableSource.super.resolveAll(keys);
+            }
+        };
+        SubstitutionStats stats = new SubstitutionStats();
+        JsonNode substituted = JsonSubstitutor.substitute(node, new DefaultStringSubstitutor(
+                new Properties(), new HashMap<>(), node, null, stats, Collections.singletonMap("vault", source), null));
+
+        assertThat(substituted.get("user").asText(), is("scott"));
+        assertThat(substituted.get("password").asText(), is("tiger"));
+        assertThat(substituted.get("url").asText(), is("jdbc:localhost/scott"));
+        assertThat(batches, is(Arrays.asList(
+                new HashSet<>(Arrays.asList("db/user", "db/password", "db/host")),
+                Collections.singleton("db/fallback"))));
+        assertThat(stats.getLookups(SubstitutionStats.Source.VARIABLE_SOURCE), is(3));
+    }
+
     private StringSubstitutor substitutor() {
         Properties p = new Properties();
         p.setProperty("foo", "bar");
         p.setProperty("strike", "${/sub/sea}");
         p.setProperty("zot", "${foo}${foo2}");
+        p.setProperty("key", "foo");
+        p.setProperty("cycle1", "${cycle2}");
+        p.setProperty("cycle2", "x${cycle1}");
 
         Map<String, String> env = new HashMap<>();
         env.put("foo2", "barryar");
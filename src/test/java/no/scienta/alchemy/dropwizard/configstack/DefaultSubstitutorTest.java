@@ -2,6 +2,7 @@ package no.scienta.alchemy.dropwizard.configstack;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -74,6 +75,39 @@ public class DefaultSubstitutorTest {
         assertEquals("bar", replace.get("zot").asText());
     }
 
+    @Test
+    public void longChain() {
+        ObjectNode jn1 = JsonUtils.objectNode();
+        jn1.put("v0", "end");
+        for (int i = 1; i <= 10000; i++) {
+            jn1.put("v" + i, "${/v" + (i - 1) + "}");
+        }
+        JsonNode replace = JsonSubstitutor.substitute(jn1, new DefaultStringSubstitutor(new Properties(), null, jn1));
+
+        assertEquals("end", replace.get("v10000").asText());
+    }
+
+    @Test
+    public void cycle() throws IOException {
+        JsonNode jn1 = read("{ \"a\": \"${/b/c}\", \"b\": {\"c\": \"x${/d/0}\"}, \"d\": [\"${/a}\"], \"e\": \"${/a}\"}");
+        try {
+            fail(JsonSubstitutor.substitute(jn1, new DefaultStringSubstitutor(new Properties(), null, jn1)) + " not expected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("/b/c -> /d/0 -> /a"));
+        }
+    }
+
+    @Test
+    public void noCycleWhenOverridden() throws IOException {
+        JsonNode jn1 = read("{ \"a\": \"${/b}\", \"b\": \"${/a}\"}");
+        Properties properties = new Properties();
+        properties.setProperty("/b", "zot");
+        JsonNode replace = JsonSubstitutor.substitute(jn1, new DefaultStringSubstitutor(properties, null, jn1));
+
+        assertEquals("zot", replace.get("a").asText());
+        assertEquals("zot", replace.get("b").asText());
+    }
+
     private static JsonNode read(String string) throws IOException {
         return new ObjectMapper().readTree(string);
     }
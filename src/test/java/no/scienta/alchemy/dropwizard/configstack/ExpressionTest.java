@@ -0,0 +1,84 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ExpressionTest {
+
+    private static final HostResources HOST = new HostResources(4, 1024L * 1024L * 1024L, 0L, 1024L);
+
+    @Test
+    public void testEvaluate() {
+        assertThat(evaluate("cpus"), is(4L));
+        assertThat(evaluate("cpus * 4 + 2"), is(18L));
+        assertThat(evaluate("(cpus + 2) * 4"), is(24L));
+        assertThat(evaluate("-cpus - -1"), is(-3L));
+        assertThat(evaluate("heapMb / 3 % 100"), is(41L));
+        assertThat(evaluate("cpus * 100 | max 256"), is(256L));
+        assertThat(evaluate("cpus | min 8 | max fds / 256"), is(4L));
+        assertThat(evaluate("(cpus | min 8) * 2"), is(16L));
+    }
+
+    @Test
+    public void testNotExpressions() {
+        for (String source : Arrays.asList(
+                "", "db.host", "cores", "cpus *", "(cpus", "cpus | clamp 4", "99999999999999999999")) {
+            try {
+                Expression.compile(source);
+                fail("Compiled " + source);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        evaluate("cpus / (cpus - 4)");
+    }
+
+    @Test
+    public void testSubstitution() {
+        ObjectNode node = JsonUtils.objectNode();
+        node.put("maxThreads", "${host:cpus * 4 | max 256}");
+        node.put("queue", "${host:cpus * 100 | min 1000||10}");
+        node.put("property", "${cpus}");
+        node.put("unprefixed", "${heapMb||64}");
+        Properties properties = new Properties();
+        properties.setProperty("cpus", "2");
+        Map<String, String> variables = new HashMap<>();
+        SubstitutionStats stats = new SubstitutionStats();
+
+        JsonNode substituted = JsonSubstitutor.substitute(node, new DefaultStringSubstitutor(
+                properties, Collections.emptyMap(), node, variables::put, stats, null, HOST));
+
+        assertThat(substituted.get("maxThreads").asText(), is("16"));
+        assertThat(substituted.get("queue").asText(), is("1000"));
+        assertThat(substituted.get("property").asText(), is("2"));
+        assertThat(substituted.get("unprefixed").asText(), is("64"));
+        assertThat(variables.get("host:cpus * 4 | max 256"), is("16"));
+        assertThat(stats.getLookups(SubstitutionStats.Source.EXPRESSION), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSubstitution() {
+        ObjectNode node = JsonUtils.objectNode();
+        node.put("maxThreads", "${host:cores * 4}");
+        JsonSubstitutor.substitute(node, new DefaultStringSubstitutor(
+                new Properties(), Collections.emptyMap(), node, null, new SubstitutionStats(), null, HOST));
+    }
+
+    private static long evaluate(String source) {
+        return Expression.compile(source).evaluate(HOST);
+    }
+}
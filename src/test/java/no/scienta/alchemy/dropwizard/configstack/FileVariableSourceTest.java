@@ -0,0 +1,77 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+public class FileVariableSourceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRead() throws Exception {
+        Path secret = write("secret", "s3cr3t\r\n\n");
+        assertThat(new FileVariableSource(true).resolve(secret.toString()), is("s3cr3t"));
+        assertThat(new FileVariableSource(false).resolve(secret.toString()), is("s3cr3t\r\n\n"));
+        assertThat(new FileVariableSource(true, 0).resolve(secret.toString()), is("s3cr3t"));
+        assertNull(new FileVariableSource(true).resolve(new File(folder.getRoot(), "nope").getPath()));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Path secret = write("secret", "first");
+        FileTime modified = Files.getLastModifiedTime(secret);
+        FileVariableSource source = new FileVariableSource(true);
+        assertThat(source.resolve(secret.toString()), is("first"));
+
+        write("secret", "other");
+        Files.setLastModifiedTime(secret, modified);
+        assertThat(source.resolve(secret.toString()), is("first"));
+
+        Files.setLastModifiedTime(secret, FileTime.fromMillis(modified.toMillis() + 2000L));
+        assertThat(source.resolve(secret.toString()), is("other"));
+
+        write("secret", "longer");
+        assertThat(source.resolve(secret.toString()), is("longer"));
+    }
+
+    @Test
+    public void testSubstitution() throws Exception {
+        Path secret = write("secret", "tiger\n");
+        ObjectNode node = JsonUtils.objectNode();
+        node.put("password", "${file:" + secret + "}");
+        node.put("missing", "${file:" + secret + ".nope||scott}");
+        Map<String, String> variables = new HashMap<>();
+        SubstitutionStats stats = new SubstitutionStats();
+
+        JsonNode substituted = JsonSubstitutor.substitute(node, new DefaultStringSubstitutor(
+                new Properties(), Collections.emptyMap(), node, variables::put, stats,
+                Collections.singletonMap(DefaultStringSubstitutor.FILE, new FileVariableSource(true)), null));
+
+        assertThat(substituted.get("password").asText(), is("tiger"));
+        assertThat(substituted.get("missing").asText(), is("scott"));
+        assertThat(variables.get("file:" + secret), is("tiger"));
+        assertThat(stats.getLookups(SubstitutionStats.Source.FILE), is(1));
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        return Files.write(new File(folder.getRoot(), name).toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
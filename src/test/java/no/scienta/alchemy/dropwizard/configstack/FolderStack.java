@@ -0,0 +1,57 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+/**
+ * Test providers for a stack of {@code App} and {@code App-<element>} layers in a folder, taking the stack from
+ * the server command as-is.
+ */
+final class FolderStack {
+
+    static StackingConfigurationSourceProvider provider(File folder, ConfigurationSubstitutor substitutor) {
+        return provider(folder, new FileConfigurationSourceProvider(), substitutor);
+    }
+
+    static StackingConfigurationSourceProvider provider(
+            File folder,
+            ConfigurationSourceProvider delegateProvider,
+            ConfigurationSubstitutor substitutor
+    ) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ConfigurationResourceResolver resolver = resolver(folder);
+        ProgressLogger progressLogger = info -> {
+        };
+        return new StackingConfigurationSourceProvider(
+                Collections::singletonList,
+                resolver,
+                new DefaultConfigurationLoader(delegateProvider, resolver, null, progressLogger),
+                new DefaultConfigurationAssembler(objectMapper, ArrayStrategy.OVERLAY),
+                substitutor,
+                objectMapper,
+                progressLogger);
+    }
+
+    private static ConfigurationResourceResolver resolver(File folder) {
+        String base = new File(folder, "App").getPath();
+        return new ConfigurationResourceResolver() {
+            @Override
+            public Stream<String> baseResource() {
+                return Stream.of(base);
+            }
+
+            @Override
+            public Stream<String> stackedResource(String stackedElement) {
+                return Stream.of(base + "-" + stackedElement);
+            }
+        };
+    }
+
+    private FolderStack() {
+    }
+}
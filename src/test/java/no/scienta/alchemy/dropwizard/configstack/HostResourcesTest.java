@@ -0,0 +1,74 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class HostResourcesTest {
+
+    private static final long GB = 1024L * 1024L * 1024L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCgroupV2() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write(root.resolve("cpu.max"), "250000 100000\n");
+        write(root.resolve("memory.max"), String.valueOf(2 * GB));
+
+        HostResources host = HostResources.detect(root, 16, GB, 64 * GB, 1024L);
+
+        assertThat(host.cpus(), is(3));
+        assertThat(host.memory(), is(2 * GB));
+        assertThat(host.get("memoryMb").get(), is(2048L));
+        assertThat(host.get("heapMb").get(), is(1024L));
+        assertThat(host.get("fds").get(), is(1024L));
+    }
+
+    @Test
+    public void testCgroupV2Unlimited() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write(root.resolve("cpu.max"), "max 100000");
+        write(root.resolve("memory.max"), "max");
+
+        HostResources host = HostResources.detect(root, 8, GB, 64 * GB, -1L);
+
+        assertThat(host.cpus(), is(8));
+        assertThat(host.memory(), is(64 * GB));
+    }
+
+    @Test
+    public void testCgroupV1() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write(root.resolve("cpu,cpuacct").resolve("cpu.cfs_quota_us"), "50000");
+        write(root.resolve("cpu,cpuacct").resolve("cpu.cfs_period_us"), "100000");
+        write(root.resolve("memory").resolve("memory.limit_in_bytes"), "9223372036854771712");
+
+        HostResources host = HostResources.detect(root, 4, GB, 8 * GB, -1L);
+
+        assertThat(host.cpus(), is(1));
+        assertThat(host.memory(), is(8 * GB));
+    }
+
+    @Test
+    public void testNoCgroup() {
+        HostResources host = HostResources.detect(folder.getRoot().toPath().resolve("nope"), 6, GB, 8 * GB, 10L);
+        assertThat(host.cpus(), is(6));
+        assertThat(host.memory(), is(8 * GB));
+        assertTrue(HostResources.detect().cpus() >= 1);
+    }
+
+    private static void write(Path path, String contents) throws Exception {
+        Files.createDirectories(path.getParent());
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,58 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+public class IndexedFileConfigurationSourceProviderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHit() throws IOException {
+        File file = write("app.json", "{}");
+        try (InputStream stream = new IndexedFileConfigurationSourceProvider().open(file.getPath())) {
+            assertThat(new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8), is("{}"));
+        }
+    }
+
+    @Test
+    public void testMiss() throws IOException {
+        write("app.json", "{}");
+        assertNull(new IndexedFileConfigurationSourceProvider()
+                .open(new File(folder.getRoot(), "app.yaml").getPath()));
+    }
+
+    @Test
+    public void testMissingDirectory() throws IOException {
+        assertNull(new IndexedFileConfigurationSourceProvider()
+                .open(new File(folder.getRoot(), "nope/app.yaml").getPath()));
+    }
+
+    @Test
+    public void testListsOnce() throws IOException {
+        IndexedFileConfigurationSourceProvider provider = new IndexedFileConfigurationSourceProvider();
+        write("app.json", "{}");
+        assertNull(provider.open(new File(folder.getRoot(), "app.yaml").getPath()));
+        write("app.yaml", "foo: bar");
+        assertNull(provider.open(new File(folder.getRoot(), "app.yaml").getPath()));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
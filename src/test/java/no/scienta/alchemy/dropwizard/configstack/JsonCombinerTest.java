@@ -150,6 +150,37 @@ public class JsonCombinerTest {
         assertEquals("zot", a1.get(1).get("zip").asText());
     }
 
+    @Test
+    public void foldEqualsCombine() throws IOException {
+        String[][] pairs = {
+                {"{ \"foo\": \"bar\"}", "{ \"zot\": \"zip\"}"},
+                {"{ \"foo\": \"bar\"}", "{ \"foo\": null}"},
+                {"{ \"foo\": { \"fooNested\": [\"zip\"]}}", "{ \"foo\": { \"fooNested\": [\"zip\", \"zot\"]}}"},
+                {"{ \"foo\": { \"fooNested\": [{\"foo\":\"zip\"}, {\"zip\":\"zot\"}]}}",
+                        "{ \"foo\": { \"fooNested\": [{\"foo\":\"zot\", \"bar\": \"zot\"}], \"x\": 1}}"},
+                {"{ \"foo\": [1, 2, 3]}", "{ \"foo\": { \"bar\": 1 }}"},
+                {"{ \"foo\": { \"bar\": 1 }}", "[1, 2]"}
+        };
+        for (ArrayStrategy strategy : ArrayStrategy.values()) {
+            for (String[] pair : pairs) {
+                JsonNode combined = JsonCombiner.combine(read(pair[0]), read(pair[1]), strategy);
+                JsonNode folded = JsonCombiner.fold(read(pair[0]), read(pair[1]), strategy);
+                assertEquals(strategy + ": " + pair[0] + " <- " + pair[1], combined, folded);
+            }
+        }
+    }
+
+    @Test
+    public void foldInPlace() throws IOException {
+        JsonNode jn1 = read("{ \"foo\": { \"fooNested\": \"bar\"}}");
+        JsonNode jn2 = read("{ \"foo\": { \"fooNested\": \"zip\", \"foo\": 1}}");
+        JsonNode jnc = JsonCombiner.fold(jn1, jn2, null);
+
+        assertSame(jn1, jnc);
+        assertEquals("zip", jn1.get("foo").get("fooNested").asText());
+        assertEquals(1, jn1.get("foo").get("foo").asInt());
+    }
+
     private static JsonNode read(String string) throws IOException {
         return new ObjectMapper().readTree(string);
     }
@@ -0,0 +1,47 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JsonDiffTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testDiff() throws IOException {
+        JsonDiff diff = new JsonDiff();
+        assertThat(diff.next(read("{\"db\": {\"pool\": 8, \"url\": \"x\"}, \"hosts\": [\"a\", \"b\"], \"a/b\": 1}")),
+                is(Collections.singletonList("")));
+        assertThat(diff.next(read("{\"hosts\": [\"a\", \"b\"], \"a/b\": 1, \"db\": {\"url\": \"x\", \"pool\": 8}}")),
+                is(Collections.emptyList()));
+        assertThat(diff.next(read("{\"db\": {\"pool\": 16}, \"hosts\": [\"a\", \"c\", \"d\"], \"a/b\": 2, \"new\": {}}")),
+                is(Arrays.asList("/hosts/1", "/hosts/2", "/a~1b", "/db/url", "/db/pool", "/new")));
+        assertThat(diff.next(read("{\"db\": \"none\"}")),
+                is(Arrays.asList("/db", "/hosts", "/a~1b", "/new")));
+    }
+
+    @Test
+    public void testSharedSubtrees() throws IOException {
+        JsonDiff diff = new JsonDiff();
+        ObjectNode before = (ObjectNode) read("{\"db\": {\"pool\": 8}, \"http\": {\"timeout\": 5}}");
+        diff.next(before);
+
+        ObjectNode after = JsonUtils.objectNode();
+        after.setAll(before);
+        after.set("http", read("{\"timeout\": 10}"));
+        assertThat(diff.next(after), is(Collections.singletonList("/http/timeout")));
+    }
+
+    private JsonNode read(String json) throws IOException {
+        return objectMapper.readTree(json);
+    }
+}
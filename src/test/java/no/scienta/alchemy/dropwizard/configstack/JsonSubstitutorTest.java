@@ -2,6 +2,7 @@ package no.scienta.alchemy.dropwizard.configstack;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -48,6 +49,33 @@ public class JsonSubstitutorTest {
         assertEquals("foofoo", jnc.get("foo").get("fooNested").get(1).asText());
     }
 
+    @Test
+    public void substituteCopyOnWrite() throws IOException {
+        JsonNode jn1 = read("{ \"foo\": { \"fooNested\": [\"zip\", \"${foo}\"]}, \"bar\": { \"barNested\": [\"zip\"]}, \"zot\": 1}");
+        String original = jn1.toString();
+        JsonNode jnc = JsonSubstitutor.substitute(jn1, value -> value.replace("${foo}", "foo"));
+
+        assertEquals(original, jn1.toString());
+        assertNotSame(jn1, jnc);
+        assertNotSame(jn1.get("foo"), jnc.get("foo"));
+        assertSame(jn1.get("foo").get("fooNested").get(0), jnc.get("foo").get("fooNested").get(0));
+        assertEquals("foo", jnc.get("foo").get("fooNested").get(1).asText());
+        assertSame(jn1.get("bar"), jnc.get("bar"));
+        assertEquals("[\"foo\",\"bar\",\"zot\"]", fieldNames(jnc));
+    }
+
+    @Test
+    public void substituteNothing() throws IOException {
+        JsonNode jn1 = read("{ \"foo\": { \"fooNested\": [\"zip\", \"foo\"]}}");
+        assertSame(jn1, JsonSubstitutor.substitute(jn1, value -> value));
+    }
+
+    private static String fieldNames(JsonNode node) {
+        ArrayNode names = JsonUtils.arrayNode();
+        node.fieldNames().forEachRemaining(names::add);
+        return names.toString();
+    }
+
     private static JsonNode read(String string) throws IOException {
         return new ObjectMapper().readTree(string);
     }
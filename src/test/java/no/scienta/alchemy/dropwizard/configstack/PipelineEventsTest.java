@@ -0,0 +1,88 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PipelineEventsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvents() throws Exception {
+        assumeTrue(PipelineEvents.available());
+        write("App.json", "{\"foo\": {\"bar\": \"${configstack.test.missing||1}\"}}");
+        write("App-prod.yaml", "foo:\n  zot: 2\n");
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            Stream.of("Assembly", "Probe", "Parse", "Merge", "Substitution")
+                    .forEach(name -> recording.enable(JfrPipelineEvents.PREFIX + name).withoutThreshold());
+            recording.start();
+            StackingConfigurationSourceProvider provider =
+                    FolderStack.provider(folder.getRoot(), new DefaultConfigurationSubstitutor(null));
+            assertThat(provider.tree("prod").at("/foo/bar").asText(), is("1"));
+            recording.stop();
+            Path dump = folder.newFile("recording.jfr").toPath();
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+        }
+
+        List<RecordedEvent> probes = events(events, "Probe");
+        assertTrue(probes.size() > 2);
+        List<RecordedEvent> hits = probes.stream()
+                .filter(probe -> probe.getBoolean("hit"))
+                .collect(Collectors.toList());
+        assertThat(hits.size(), is(2));
+        assertTrue(hits.get(0).getString("path").endsWith("App.json"));
+        assertThat(hits.get(0).getString("provider"), is(FileConfigurationSourceProvider.class.getName()));
+        assertTrue(hits.get(0).getLong("bytes") > 0L);
+
+        List<RecordedEvent> parses = events(events, "Parse");
+        assertThat(parses.size(), is(2));
+        assertThat(parses.get(0).getString("format"), is("JSON"));
+        assertThat(parses.get(0).getLong("nodes"), is(3L));
+        assertThat(parses.get(1).getString("format"), is("YAML"));
+
+        assertThat(events(events, "Merge").size(), is(2));
+
+        List<RecordedEvent> substitutions = events(events, "Substitution");
+        assertThat(substitutions.size(), is(1));
+        assertThat(substitutions.get(0).getInt("placeholders"), is(1));
+        assertThat(substitutions.get(0).getInt("unresolved"), is(1));
+
+        List<RecordedEvent> assemblies = events(events, "Assembly");
+        assertThat(assemblies.size(), is(1));
+        assertThat(assemblies.get(0).getString("serverCommand"), is("prod"));
+        assertThat(assemblies.get(0).getInt("layers"), is(2));
+        assertThat(assemblies.get(0).getLong("nodes"), is(4L));
+    }
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(JfrPipelineEvents.PREFIX + name))
+                .sorted((e1, e2) -> e1.getStartTime().compareTo(e2.getStartTime()))
+                .collect(Collectors.toList());
+    }
+
+    private void write(String name, String content) throws Exception {
+        Files.write(new File(folder.getRoot(), name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,44 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PointerTrieTest {
+
+    @Test
+    public void testAffected() {
+        PointerTrie<String> trie = new PointerTrie<>();
+        trie.add("", "root");
+        trie.add("/db", "db");
+        trie.add("/db/pool", "pool");
+        trie.add("/http/client", "client");
+
+        assertThat(trie.affected(Collections.singletonList("/db/pool/size")), is(set("root", "db", "pool")));
+        assertThat(trie.affected(Collections.singletonList("/db/url")), is(set("root", "db")));
+        assertThat(trie.affected(Collections.singletonList("/http")), is(set("root", "client")));
+        assertThat(trie.affected(Arrays.asList("/db/url", "/db/pool")), is(set("root", "db", "pool")));
+        assertThat(trie.affected(Collections.singletonList("")), is(set("root", "db", "pool", "client")));
+        assertThat(trie.affected(Collections.emptyList()), is(set()));
+    }
+
+    @Test
+    public void testInvalidPointer() {
+        try {
+            new PointerTrie<String>().add("db", "db");
+            fail("Invalid pointer accepted");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    private static Set<String> set(String... values) {
+        return new LinkedHashSet<>(Arrays.asList(values));
+    }
+}
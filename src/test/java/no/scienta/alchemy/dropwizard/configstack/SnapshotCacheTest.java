@@ -0,0 +1,90 @@
+package no.scienta.alchemy.dropwizard.configstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class SnapshotCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testKey() {
+        SnapshotCache cache = cache(Collections.singletonMap("arrays", ArrayStrategy.OVERLAY));
+        String key = cache.key("prod", layers("{\"foo\": 1}"));
+        assertThat(cache.key("prod", layers("{\"foo\": 1}")), is(key));
+        assertNotEquals(key, cache.key("prod", layers("{\"foo\": 2}")));
+        assertNotEquals(key, cache.key("dev", layers("{\"foo\": 1}")));
+        assertNotEquals(key, cache(Collections.singletonMap("arrays", ArrayStrategy.REPLACE))
+                .key("prod", layers("{\"foo\": 1}")));
+    }
+
+    @Test
+    public void testVariables() throws Exception {
+        SnapshotCache cache = cache(Collections.emptyMap());
+        Map<String, String> variables = new HashMap<>();
+        variables.put("HOST", "localhost");
+        variables.put("PORT", null);
+        JsonNode config = objectMapper.readTree("{\"foo\": \"localhost\"}");
+        cache.put("key", variables, config);
+
+        assertThat(cache.get("key", variables::get).orElse(null), is(config));
+        assertFalse(cache.get("other", variables::get).isPresent());
+
+        variables.put("PORT", "8080");
+        assertFalse(cache.get("key", variables::get).isPresent());
+
+        JsonNode stored = objectMapper.readTree(new File(folder.getRoot(), "snapshot-key.json"));
+        assertTrue(stored.path("variables").has("HOST"));
+        assertNotEquals("localhost", stored.path("variables").path("HOST").asText());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        SnapshotCache cache = cache(Collections.emptyMap());
+        JsonNode config = objectMapper.readTree("{}");
+        long time = 1000000L;
+        for (String key : Arrays.asList("a", "b", "c")) {
+            cache.put(key, new HashMap<>(), config);
+            Files.setLastModifiedTime(new File(folder.getRoot(), "snapshot-" + key + ".json").toPath(),
+                    FileTime.fromMillis(time += 1000L));
+        }
+        cache.put("d", new HashMap<>(), config);
+
+        assertFalse(cache.get("a", name -> null).isPresent());
+        assertFalse(cache.get("b", name -> null).isPresent());
+        assertTrue(cache.get("c", name -> null).isPresent());
+        assertTrue(cache.get("d", name -> null).isPresent());
+        assertThat(folder.getRoot().list().length, is(2));
+    }
+
+    private SnapshotCache cache(Map<String, ?> settings) {
+        return new SnapshotCache(folder.getRoot().toPath(), 2, settings, objectMapper, info -> {
+        });
+    }
+
+    private static Collection<LoadedData> layers(String json) {
+        return Arrays.asList(
+                LoadedData.create("App.json", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))),
+                LoadedData.create("App-prod.json", null));
+    }
+}
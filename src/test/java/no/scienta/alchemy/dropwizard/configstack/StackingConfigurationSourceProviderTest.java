@@ -1,15 +1,34 @@
 package no.scienta.alchemy.dropwizard.configstack;
 
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
-import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.*;
 
 public class StackingConfigurationSourceProviderTest {
 
@@ -32,6 +51,197 @@ public class StackingConfigurationSourceProviderTest {
         }
     }
 
+    @Test
+    public void testSingleFlight() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StackingConfigurationSourceProvider provider = countingProvider(runs, loading, release, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<JsonNode>> trees = new ArrayList<>();
+            trees.add(executor.submit(() -> provider.tree("foo")));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                trees.add(executor.submit(() -> provider.tree("foo")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            JsonNode first = trees.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<JsonNode> tree : trees.subList(1, trees.size())) {
+                JsonNode other = tree.get(10, TimeUnit.SECONDS);
+                assertThat(other, is(first));
+                assertThat(other, not(sameInstance(first)));
+            }
+            assertThat(runs.get(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCaching() {
+        AtomicInteger runs = new AtomicInteger();
+        StackingConfigurationSourceProvider provider =
+                countingProvider(runs, new CountDownLatch(1), new CountDownLatch(0), 1);
+
+        ((ObjectNode) provider.tree("foo")).put("mutated", true);
+        assertFalse(provider.tree("foo").has("mutated"));
+        assertThat(runs.get(), is(1));
+
+        provider.tree("bar");
+        provider.tree("foo");
+        assertThat(runs.get(), is(3));
+    }
+
+    @Test
+    public void testMetrics() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = "{\"host\": \"${configstack.test.host}\", \"url\": \"http://${/host}:${port||80}\"}";
+        StackingConfigurationSourceProvider provider = new StackingConfigurationSourceProvider(
+                Collections::singletonList,
+                new BasenameVariationsResourceResolver(getClass()),
+                stack -> Arrays.asList(
+                        LoadedData.create("app.json", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))),
+                        LoadedData.create("app-foo.json", new ByteArrayInputStream(new byte[]{'{', '}'}))),
+                new DefaultConfigurationAssembler(objectMapper, ArrayStrategy.OVERLAY),
+                new DefaultConfigurationSubstitutor(null),
+                objectMapper,
+                info -> {
+                });
+        System.setProperty("configstack.test.host", "localhost");
+        try {
+            assertThat(provider.tree("foo").get("url").asText(), is("http://localhost:80"));
+        } finally {
+            System.clearProperty("configstack.test.host");
+        }
+
+        MetricRegistry registry = new MetricRegistry();
+        provider.metrics().register(registry);
+        assertThat(registry.getTimers().get("configstack.assemble").getCount(), is(1L));
+        assertThat(registry.getHistograms().get("configstack.layer.bytes").getSnapshot().getMax(),
+                is((long) json.length()));
+        assertThat(gauge(registry, "layers"), is(2));
+        assertThat(gauge(registry, "bytes"), is(json.length() + 2L));
+        assertThat(gauge(registry, "nodes"), is(3L));
+        assertThat(gauge(registry, "placeholders"), is(3));
+        assertThat(gauge(registry, "lookups.system-property"), is(1));
+        assertThat(gauge(registry, "lookups.json-pointer"), is(1));
+        assertThat(gauge(registry, "lookups.unresolved"), is(1));
+    }
+
+    @Test
+    public void testOpenAsync() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StackingConfigurationSourceProvider provider = countingProvider(runs, loading, release, 0);
+
+        CompletableFuture<JsonNode> preassembly = provider.openAsync("foo");
+        provider.openAsync("foo");
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        assertFalse(preassembly.isDone());
+        release.countDown();
+
+        assertThat(provider.tree("foo"), is(preassembly.get(10, TimeUnit.SECONDS)));
+        assertThat(runs.get(), is(1));
+
+        provider.tree("foo");
+        assertThat(runs.get(), is(2));
+    }
+
+    @Test
+    public void testOpenAsyncFailure() {
+        String message = null;
+        try {
+            ((StackingConfigurationSourceProvider) nullProvider()).tree("foo");
+        } catch (IllegalStateException e) {
+            message = e.getMessage();
+        }
+        StackingConfigurationSourceProvider provider = (StackingConfigurationSourceProvider) nullProvider();
+        provider.openAsync("foo");
+        try {
+            fail(provider.tree("foo") + " not expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(message));
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    @Test
+    public void testMemoryAccounting() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = "{\"server\": {\"port\": 8080, \"hosts\": [\"a\", \"b\"]}, \"name\": \"${/server/port}\"}";
+        List<String> logged = new ArrayList<>();
+        StackingConfigurationSourceProvider provider = new StackingConfigurationSourceProvider(
+                Collections::singletonList,
+                new BasenameVariationsResourceResolver(getClass()),
+                stack -> Collections.singletonList(
+                        LoadedData.create("app.json", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))),
+                new DefaultConfigurationAssembler(objectMapper, ArrayStrategy.OVERLAY),
+                new DefaultConfigurationSubstitutor(null),
+                objectMapper,
+                info -> logged.add(info.get()),
+                0,
+                null,
+                true);
+        try (InputStream stream = provider.open("foo")) {
+            assertThat(objectMapper.readTree(stream).get("name").asText(), is("8080"));
+        }
+        assertTrue(logged.stream().anyMatch(line ->
+                line.startsWith("Config memory: ") && line.contains("substituted") && !line.contains("serialized")));
+
+        MetricRegistry registry = new MetricRegistry();
+        provider.metrics().register(registry);
+        for (MemoryAccounting.Structure structure : MemoryAccounting.Structure.values()) {
+            Object retained = gauge(registry, "retained." + structure.name().toLowerCase());
+            assertTrue(structure + " not estimated", (Long) retained > 0L);
+        }
+        assertTrue((Long) gauge(registry, "retained.layers") > json.length());
+        if (MemoryAccounting.allocationsSupported()) {
+            assertTrue(registry.getHistograms().get("configstack.assemble.allocated").getSnapshot().getMax() > 0L);
+        }
+
+        JsonNode tree = objectMapper.readTree(json);
+        ObjectNode shared = objectMapper.createObjectNode();
+        shared.set("first", tree);
+        shared.set("second", tree);
+        assertThat(MemoryAccounting.unsharedSize(shared) - MemoryAccounting.size(shared),
+                is(MemoryAccounting.unsharedSize(tree)));
+    }
+
+    private static Object gauge(MetricRegistry registry, String name) {
+        return registry.getGauges().get("configstack." + name).getValue();
+    }
+
+    private StackingConfigurationSourceProvider countingProvider(
+            AtomicInteger runs, CountDownLatch loading, CountDownLatch release, int cacheSize) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return new StackingConfigurationSourceProvider(
+                Collections::singletonList,
+                new BasenameVariationsResourceResolver(getClass()),
+                stack -> {
+                    runs.incrementAndGet();
+                    loading.countDown();
+                    try {
+                        assertTrue(release.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return Collections.emptyList();
+                },
+                loadables -> objectMapper.createObjectNode().put("foo", "bar"),
+                configuration -> configuration,
+                objectMapper,
+                info -> {
+                },
+                cacheSize,
+                null,
+                false);
+    }
+
     private ConfigurationSourceProvider nullProvider() {
         return new StackingConfigurationSourceProvider(
                 serverCommand -> {
@@ -2,7 +2,9 @@ package no.scienta.alchemy.dropwizard.configstack;
 
 import org.junit.Test;
 
+import static no.scienta.alchemy.dropwizard.configstack.Suffix.CBOR;
 import static no.scienta.alchemy.dropwizard.configstack.Suffix.JSON;
+import static no.scienta.alchemy.dropwizard.configstack.Suffix.SMILE;
 import static no.scienta.alchemy.dropwizard.configstack.Suffix.YAML;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -25,4 +27,12 @@ public class SuffixTest {
         assertThat(YAML.isSuffixed("foo.yaml"), is(true));
         assertThat(YAML.isSuffixed("foo.json"), not(is(true)));
     }
+
+    @Test
+    public void of() {
+        assertThat(Suffix.of("foo.yaml"), is(YAML));
+        assertThat(Suffix.of("foo.SMILE"), is(SMILE));
+        assertThat(Suffix.of("foo.cbor"), is(CBOR));
+        assertThat(Suffix.of("foo"), is(JSON));
+    }
 }
@@ -1,5 +1,6 @@
 package no.scienta.alchemy.dropwizard.configstack.test;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
@@ -7,16 +8,22 @@ import io.dropwizard.Bundle;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 import io.dropwizard.jackson.Jackson;
 import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
 import no.scienta.alchemy.dropwizard.configstack.*;
 import no.scienta.alchemy.dropwizard.configstack.app.StackApp;
 import no.scienta.alchemy.dropwizard.configstack.app.StackAppConfiguration;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -33,6 +40,9 @@ import static org.mockito.Mockito.*;
 
 public class ConfigStackBundlerTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private List<String> progress;
 
     @Before
@@ -178,6 +188,75 @@ public class ConfigStackBundlerTest {
         assertThat(config.strings[0], is("winning!"));
     }
 
+    @Test
+    public void testSnapshotsFollowSettings() throws IOException {
+        Path snapshots = folder.newFolder("snapshots").toPath();
+        Path secret = folder.newFile("secret").toPath();
+        Files.write(secret, "secret\n".getBytes(StandardCharsets.UTF_8));
+        ObjectMapper objectMapper = Jackson.newObjectMapper();
+        MockedConfigurationSourceProvider layers = new MockedConfigurationSourceProvider(objectMapper)
+                .content(StackAppConfiguration.class.getSimpleName() + ".json",
+                        new StackAppConfiguration() {{
+                            strings = new String[]{"base", "${file:" + secret + "}"};
+                        }})
+                .content(StackAppConfiguration.class.getSimpleName() + "-debug.json",
+                        new StackAppConfiguration() {{
+                            strings = new String[]{"debug"};
+                        }});
+
+        assertThat(strings(snapshotted(snapshots), layers, objectMapper),
+                is(new String[]{"debug", "${file:" + secret + "}"}));
+        assertThat(strings(snapshotted(snapshots).enableFileLookups(false), layers, objectMapper),
+                is(new String[]{"debug", "secret\n"}));
+        assertThat(strings(snapshotted(snapshots).enableFileLookups(true), layers, objectMapper),
+                is(new String[]{"debug", "secret"}));
+        assertThat(strings(snapshotted(snapshots).enableFileLookups(true)
+                        .setArrayStrategy(ArrayStrategy.REPLACE), layers, objectMapper),
+                is(new String[]{"debug"}));
+        assertFalse(progress.stream().anyMatch(line -> line.startsWith("Snapshot hit")));
+
+        assertThat(strings(snapshotted(snapshots).enableFileLookups(true)
+                        .setArrayStrategy(ArrayStrategy.REPLACE), layers, objectMapper),
+                is(new String[]{"debug"}));
+        assertTrue(progress.stream().anyMatch(line -> line.startsWith("Snapshot hit")));
+    }
+
+    private ConfigStackBundler<StackAppConfiguration> snapshotted(Path snapshots) {
+        return ConfigStackBundler.create(StackAppConfiguration.class)
+                .enableSnapshots(snapshots, 8)
+                .setProgressLogger(string -> progress.add(string.get()));
+    }
+
+    private String[] strings(ConfigStackBundler<StackAppConfiguration> bundler,
+                             ConfigurationSourceProvider layers,
+                             ObjectMapper objectMapper) throws IOException {
+        InputStream debug = assertedStackingProvider(mount(bundler.bundle(), layers)).open("debug");
+        return objectMapper.readerFor(StackAppConfiguration.class).<StackAppConfiguration>readValue(debug).strings;
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        Bundle bundle = base().bundle();
+        StackAppConfiguration config = ((BundleFondle) bundle)
+                .read(StackAppConfiguration.class, "debug", Jackson.newObjectMapper());
+        assertThat(config.appName, is("StackTest"));
+        assertThat(config.sub.mode, is("debug"));
+    }
+
+    @Test
+    public void testHandlesBoundWithoutReloading() throws IOException {
+        Bundle bundle = base().bundle();
+        LiveConfiguration live = LiveConfiguration.of(bundle);
+        ConfigHandle<String> early = live.getHandle("/appName", String.class);
+        assertedStackingProvider(mount(bundle, null)).open("debug").close();
+        assertFalse(live.getConfigTree().isPresent());
+
+        bundle.run(new Environment("test", Jackson.newObjectMapper(), null, new MetricRegistry(), null));
+        assertThat(early.get(), is("StackTest"));
+        assertThat(live.getConfigTree().get().path("sub").path("mode").asText(), is("debug"));
+        assertThat(live.getHandle("/sub/mode", String.class).get(), is("debug"));
+    }
+
     @Test
     public void testQuiet() throws IOException {
         Bundle bundle = base().quiet().bundle();